@@ -13,13 +13,26 @@ interface Command {
 
 // Receiver
 class Light {
+    private boolean on;
+
     void turnOn() {
+        on = true;
         System.out.println("Light is ON");
     }
 
     void turnOff() {
+        on = false;
         System.out.println("Light is OFF");
     }
+
+    boolean isOn() {
+        return on;
+    }
+
+    // Sets the state without announcing it, used when rebuilding from a journal
+    void restore(boolean on) {
+        this.on = on;
+    }
 }
 
 // Concrete Commands
@@ -76,4 +89,1016 @@ public class Main {
         remoteControl.setCommand(turnOff);
         remoteControl.pressButton();
     }
-}
\ No newline at end of file
+}
+
+
+// ************************* Queued RemoteControl Example: *************************
+/*
+When many threads press buttons at the same time, running every command on the caller 
+thread makes them contend for the receivers. A queued invoker decouples them: producers 
+publish commands into a bounded ring buffer and a single consumer drains and executes 
+them in batches. The buffer is lock-free (each slot carries a sequence number that tells 
+producers and the consumer whose turn it is), and a full buffer pushes back on producers.
+*/
+
+// Wait strategy used while the buffer is empty (consumer) or full (producers)
+interface WaitStrategy {
+    void idle(int attempt);
+}
+
+class BusySpinWaitStrategy implements WaitStrategy {
+    @Override
+    public void idle(int attempt) {
+        Thread.onSpinWait();
+    }
+}
+
+class YieldingWaitStrategy implements WaitStrategy {
+    @Override
+    public void idle(int attempt) {
+        if (attempt < 100) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
+
+class SleepingWaitStrategy implements WaitStrategy {
+    @Override
+    public void idle(int attempt) {
+        if (attempt < 100) {
+            Thread.onSpinWait();
+        } else if (attempt < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+}
+
+// Bounded multi-producer / single-consumer ring buffer of commands
+class CommandRingBuffer {
+    private final Command[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    public CommandRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        slots = new Command[capacity];
+        sequences = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Returns false when the buffer is full
+    public boolean offer(Command command) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = command;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    // Moves up to dst.length commands into dst and returns how many were taken
+    public int drainTo(Command[] dst) {
+        int count = 0;
+        while (count < dst.length) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            dst[count++] = slots[index];
+            slots[index] = null;
+            sequences.set(index, head + slots.length);
+            head++;
+        }
+        return count;
+    }
+}
+
+// Queued Invoker
+class QueuedRemoteControl {
+    private final CommandRingBuffer buffer;
+    private final WaitStrategy waitStrategy;
+    private final Command[] batch;
+    private final BiConsumer<Command, RuntimeException> onFailure;
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    public QueuedRemoteControl(int capacity, int batchSize, WaitStrategy waitStrategy) {
+        this(capacity, batchSize, waitStrategy, (command, e) ->
+                System.err.println("Command " + command + " failed: " + e));
+    }
+
+    // onFailure is told about every command that throws; the consumer keeps draining the buffer
+    public QueuedRemoteControl(int capacity, int batchSize, WaitStrategy waitStrategy,
+                               BiConsumer<Command, RuntimeException> onFailure) {
+        this.buffer = new CommandRingBuffer(capacity);
+        this.waitStrategy = waitStrategy;
+        this.batch = new Command[batchSize];
+        this.onFailure = onFailure;
+        this.consumer = new Thread(this::runConsumer, "remote-control-consumer");
+        this.consumer.start();
+    }
+
+    // Blocks (using the wait strategy) while the buffer is full
+    public void pressButton(Command command) {
+        int attempt = 0;
+        while (!buffer.offer(command)) {
+            waitStrategy.idle(attempt++);
+        }
+    }
+
+    // Rejects the command instead of waiting when the buffer is full
+    public boolean tryPressButton(Command command) {
+        return buffer.offer(command);
+    }
+
+    // Runs everything already published, then stops the consumer thread
+    public void shutdown() throws InterruptedException {
+        running = false;
+        consumer.join();
+    }
+
+    private void runConsumer() {
+        int attempt = 0;
+        while (true) {
+            boolean stopping = !running;
+            int count = buffer.drainTo(batch);
+            if (count > 0) {
+                for (int i = 0; i < count; i++) {
+                    try {
+                        batch[i].execute();
+                    } catch (RuntimeException e) {
+                        onFailure.accept(batch[i], e);
+                    }
+                    batch[i] = null;
+                }
+                attempt = 0;
+            } else if (stopping) {
+                return;
+            } else {
+                waitStrategy.idle(attempt++);
+            }
+        }
+    }
+}
+
+// Client code
+public class Main {
+    static final int PRODUCERS = 4;
+    static final int COMMANDS_PER_PRODUCER = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Light light = new Light();
+        QueuedRemoteControl queued = new QueuedRemoteControl(1024, 64, new YieldingWaitStrategy());
+        queued.pressButton(new TurnOnCommand(light));
+        queued.pressButton(new TurnOffCommand(light));
+        queued.shutdown();
+
+        // Benchmark with a cheap command so the invoker itself is what gets measured
+        LongAdder executed = new LongAdder();
+        Command count = executed::increment;
+
+        RemoteControl direct = new RemoteControl();
+        direct.setCommand(count);
+        Object lock = new Object();
+        runProducers("pressButton()", () -> {
+            synchronized (lock) {
+                direct.pressButton();
+            }
+        });
+
+        QueuedRemoteControl batched = new QueuedRemoteControl(1 << 14, 256, new YieldingWaitStrategy());
+        runProducers("queued pressButton(command)", () -> batched.pressButton(count));
+        long start = System.nanoTime();
+        batched.shutdown();
+        System.out.println("Drain after last publish: " + (System.nanoTime() - start) / 1_000 + " us");
+        System.out.println("Commands executed: " + executed.sum());
+    }
+
+    // Prints throughput of all producers and per-call latency of the first one
+    static void runProducers(String name, Runnable press) throws InterruptedException {
+        long[] latencies = new long[COMMANDS_PER_PRODUCER];
+        Thread[] producers = new Thread[PRODUCERS];
+        long start = System.nanoTime();
+        for (int p = 0; p < PRODUCERS; p++) {
+            boolean sampled = p == 0;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < COMMANDS_PER_PRODUCER; i++) {
+                    long t0 = System.nanoTime();
+                    press.run();
+                    if (sampled) {
+                        latencies[i] = System.nanoTime() - t0;
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + " throughput: "
+                + (PRODUCERS * (long) COMMANDS_PER_PRODUCER * 1_000_000_000L / elapsed) + " commands/s");
+        Arrays.sort(latencies);
+        System.out.println(name + " latency p50=" + latencies[latencies.length / 2]
+                + "ns p99=" + latencies[(int) (latencies.length * 0.99)]
+                + "ns p99.9=" + latencies[(int) (latencies.length * 0.999)] + "ns");
+    }
+}
+
+
+
+// ************************* Journaled RemoteControl Example: *************************
+/*
+Commands are objects, so the invoker can keep a history of them to support undo/redo. 
+Writing that history to an append-only journal also gives crash recovery: replaying the 
+journal on restart rebuilds the state of every receiver. The journal is a memory-mapped 
+file where each entry is one opcode byte followed by the light id as a varint, and a 
+background thread forces it to disk in groups so that a button press never waits for 
+its own fsync unless the caller asks for it.
+*/
+
+// Command that knows how to revert itself
+interface UndoableCommand extends Command {
+    void undo();
+}
+
+class ToggleLightCommand implements UndoableCommand {
+    private final Light light;
+    private final boolean turnOn;
+    private boolean wasOn;
+
+    public ToggleLightCommand(Light light, boolean turnOn) {
+        this.light = light;
+        this.turnOn = turnOn;
+    }
+
+    @Override
+    public void execute() {
+        wasOn = light.isOn();
+        light.restore(turnOn);
+    }
+
+    @Override
+    public void undo() {
+        light.restore(wasOn);
+    }
+}
+
+// Append-only memory-mapped journal with group commit
+class CommandJournal implements AutoCloseable {
+    static final byte TURN_ON = 1;
+    static final byte TURN_OFF = 2;
+    static final byte UNDO = 3;
+    static final byte REDO = 4;
+    // Operand is the number of commands that can be undone from here on
+    static final byte HISTORY_LIMIT = 5;
+
+    private static final int HEADER_SIZE = Long.BYTES;
+
+    private final FileChannel channel;
+    private final Thread flusher;
+    private final Object flushLock = new Object();
+    private MappedByteBuffer buffer;
+    private long written;
+    private long durable;
+    private volatile boolean open = true;
+
+    public CommandJournal(Path file, int initialSize, long flushIntervalMillis) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(initialSize, channel.size()));
+        // Anything past the committed length is a torn write from a crash and is ignored
+        written = Math.max(HEADER_SIZE, buffer.getLong(0));
+        durable = written;
+        flusher = new Thread(() -> {
+            while (open) {
+                LockSupport.parkNanos(flushIntervalMillis * 1_000_000);
+                flush();
+            }
+        }, "command-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Returns the journal position just after the entry; lightId is the operand of any opcode that has one
+    public synchronized long append(byte opcode, int lightId) {
+        ensureCapacity(1 + 5);
+        int position = (int) written;
+        buffer.put(position++, opcode);
+        if (hasOperand(opcode)) {
+            int value = lightId;
+            while ((value & ~0x7F) != 0) {
+                buffer.put(position++, (byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put(position++, (byte) value);
+        }
+        written = position;
+        return written;
+    }
+
+    // Blocks until the entry ending at the given position is on disk
+    public synchronized void awaitDurable(long position) throws InterruptedException {
+        while (durable < position) {
+            wait();
+        }
+    }
+
+    // One fsync covers every entry appended since the previous one; appends are not blocked meanwhile
+    public void flush() {
+        synchronized (flushLock) {
+            long start;
+            long end;
+            MappedByteBuffer mapped;
+            synchronized (this) {
+                start = durable;
+                end = written;
+                mapped = buffer;
+                if (end == start) {
+                    return;
+                }
+            }
+            // Entries first, then the committed length, so a crash never exposes a torn entry
+            mapped.force((int) start, (int) (end - start));
+            mapped.putLong(0, end);
+            mapped.force(0, HEADER_SIZE);
+            synchronized (this) {
+                durable = end;
+                notifyAll();
+            }
+        }
+    }
+
+    // Feeds every committed entry to the visitor in order
+    public synchronized void replay(JournalVisitor visitor) {
+        int position = HEADER_SIZE;
+        while (position < written) {
+            byte opcode = buffer.get(position++);
+            int lightId = 0;
+            if (hasOperand(opcode)) {
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(position++);
+                    lightId |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+            }
+            visitor.visit(opcode, lightId);
+        }
+    }
+
+    private static boolean hasOperand(byte opcode) {
+        return opcode != UNDO && opcode != REDO;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (written + bytes > buffer.capacity()) {
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) buffer.capacity() * 2);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to grow journal", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        flusher.interrupt();
+        flush();
+        channel.close();
+    }
+}
+
+interface JournalVisitor {
+    void visit(byte opcode, int lightId);
+}
+
+// Invoker with undo/redo history backed by the journal
+class JournaledRemoteControl {
+    private final List<Light> lights;
+    private final CommandJournal journal;
+    // The limit is journaled too, so replay trims the history exactly as it was trimmed when written
+    private int maxHistory = Integer.MAX_VALUE;
+    private final Deque<UndoableCommand> undoStack = new ArrayDeque<>();
+    private final Deque<UndoableCommand> redoStack = new ArrayDeque<>();
+
+    // Only the latest maxHistory commands can be undone; older ones stay in the journal only
+    public JournaledRemoteControl(List<Light> lights, CommandJournal journal, int maxHistory) {
+        this.lights = lights;
+        this.journal = journal;
+        // Rebuild receiver state and history from whatever was committed before
+        journal.replay((opcode, lightId) -> apply(opcode, lightId));
+        if (this.maxHistory != maxHistory) {
+            apply(CommandJournal.HISTORY_LIMIT, maxHistory);
+            journal.append(CommandJournal.HISTORY_LIMIT, maxHistory);
+        }
+    }
+
+    public long turnOn(int lightId) {
+        apply(CommandJournal.TURN_ON, lightId);
+        return journal.append(CommandJournal.TURN_ON, lightId);
+    }
+
+    public long turnOff(int lightId) {
+        apply(CommandJournal.TURN_OFF, lightId);
+        return journal.append(CommandJournal.TURN_OFF, lightId);
+    }
+
+    public long undo() {
+        if (undoStack.isEmpty()) {
+            throw new IllegalStateException("Nothing to undo");
+        }
+        apply(CommandJournal.UNDO, 0);
+        return journal.append(CommandJournal.UNDO, 0);
+    }
+
+    public long redo() {
+        if (redoStack.isEmpty()) {
+            throw new IllegalStateException("Nothing to redo");
+        }
+        apply(CommandJournal.REDO, 0);
+        return journal.append(CommandJournal.REDO, 0);
+    }
+
+    private void apply(byte opcode, int lightId) {
+        switch (opcode) {
+            case CommandJournal.TURN_ON:
+            case CommandJournal.TURN_OFF:
+                UndoableCommand command = new ToggleLightCommand(lights.get(lightId), opcode == CommandJournal.TURN_ON);
+                command.execute();
+                undoStack.push(command);
+                trimHistory();
+                redoStack.clear();
+                break;
+            case CommandJournal.UNDO:
+                UndoableCommand undone = undoStack.pop();
+                undone.undo();
+                redoStack.push(undone);
+                break;
+            case CommandJournal.REDO:
+                UndoableCommand redone = redoStack.pop();
+                redone.execute();
+                undoStack.push(redone);
+                break;
+            case CommandJournal.HISTORY_LIMIT:
+                maxHistory = lightId;
+                trimHistory();
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal opcode " + opcode);
+        }
+    }
+
+    private void trimHistory() {
+        while (undoStack.size() > maxHistory) {
+            undoStack.removeLast();
+        }
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("commands", ".journal");
+        List<Light> lights = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lights.add(new Light());
+        }
+
+        try (CommandJournal journal = new CommandJournal(file, 1 << 20, 5)) {
+            JournaledRemoteControl remote = new JournaledRemoteControl(lights, journal, 100);
+            remote.turnOn(1);
+            remote.turnOn(2);
+            remote.undo();                              // light 2 back off
+            long position = remote.turnOff(1);
+            journal.awaitDurable(position);
+            for (int i = 0; i < 1_000_000; i++) {
+                remote.turnOn(i % lights.size());
+            }
+        }
+
+        // Simulate a restart: fresh receivers rebuilt from the journal
+        List<Light> recovered = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            recovered.add(new Light());
+        }
+        long start = System.nanoTime();
+        try (CommandJournal journal = new CommandJournal(file, 1 << 20, 5)) {
+            new JournaledRemoteControl(recovered, journal, 100);
+        }
+        System.out.println("Replayed " + Files.size(file) + " byte journal in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        System.out.println("Light 1 is " + (recovered.get(1).isOn() ? "ON" : "OFF"));
+        Files.delete(file);
+    }
+}
+
+
+
+// ************************* Coalescing RemoteControl Example: *************************
+/*
+When a burst of commands targets the same receiver, only the last one decides its final 
+state. A coalescing scheduler sits in front of the invoker and keeps at most one pending 
+command per receiver: a newer command replaces the older one, which is never executed. 
+Pending commands are handed to the RemoteControl when the time window expires or when 
+too many receivers are waiting.
+*/
+
+class CoalescingScheduler implements AutoCloseable {
+    private final RemoteControl remoteControl;
+    private final int maxPending;
+    private final BiConsumer<Object, RuntimeException> onFailure;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private Map<Object, Command> pending = new LinkedHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public CoalescingScheduler(RemoteControl remoteControl, long windowMillis, int maxPending) {
+        this(remoteControl, windowMillis, maxPending, (receiver, e) ->
+                System.err.println("Command for " + receiver + " failed: " + e));
+    }
+
+    // onFailure is told about every command that throws; the rest of the batch still runs
+    public CoalescingScheduler(RemoteControl remoteControl, long windowMillis, int maxPending,
+                               BiConsumer<Object, RuntimeException> onFailure) {
+        this.remoteControl = remoteControl;
+        this.maxPending = maxPending;
+        this.onFailure = onFailure;
+        timer.scheduleAtFixedRate(this::timedFlush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void submit(Object receiver, Command command) {
+        submitted.increment();
+        boolean full;
+        synchronized (this) {
+            if (pending.put(receiver, command) != null) {
+                coalesced.increment();
+            }
+            full = pending.size() >= maxPending;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    // Runs the net-effect command of every receiver, in order of first submission
+    public void flush() {
+        // Holding the invoker while taking the batch keeps batches from overtaking each other
+        synchronized (remoteControl) {
+            Map<Object, Command> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+            for (Map.Entry<Object, Command> entry : batch.entrySet()) {
+                remoteControl.setCommand(entry.getValue());
+                try {
+                    remoteControl.pressButton();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    onFailure.accept(entry.getKey(), e);
+                } finally {
+                    executed.increment();
+                }
+            }
+        }
+    }
+
+    // A periodic task that throws is silently never run again, so nothing may escape from here
+    private void timedFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("Timed flush failed: " + e);
+        }
+    }
+
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    // Includes the commands that failed
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdown();
+        flush();
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) {
+        Light kitchen = new Light();
+        Light bedroom = new Light();
+
+        try (CoalescingScheduler scheduler = new CoalescingScheduler(new RemoteControl(), 50, 1000)) {
+            for (int i = 0; i < 10; i++) {
+                scheduler.submit(kitchen, new TurnOnCommand(kitchen));
+                scheduler.submit(kitchen, new TurnOffCommand(kitchen));
+            }
+            scheduler.submit(bedroom, new TurnOnCommand(bedroom));
+            scheduler.flush();              // Light is OFF, Light is ON
+
+            System.out.println("Submitted: " + scheduler.getSubmitted()
+                    + ", coalesced: " + scheduler.getCoalesced()
+                    + ", executed: " + scheduler.getExecuted());
+        }
+    }
+}
+
+
+
+// ************************* Keyed Executor Example: *************************
+/*
+Commands for different receivers are independent and can run in parallel, but commands 
+for the same receiver must keep their order. The keyed executor gives every receiver its 
+own mailbox, and only one task per mailbox is ever scheduled, so a receiver's commands run 
+one after another. A mailbox gives up its thread after a few commands so that a busy 
+receiver cannot starve the others. Cheap virtual threads (Java 21) make it fine for 
+commands to block while talking to a device.
+*/
+
+class KeyedCommandExecutor {
+    private final Executor executor;
+    private final int commandsPerTurn;
+    private final BiConsumer<Object, RuntimeException> onFailure;
+    private final Map<Object, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public KeyedCommandExecutor(Executor executor, int commandsPerTurn) {
+        this(executor, commandsPerTurn, (receiver, e) ->
+                System.err.println("Command for " + receiver + " failed: " + e));
+    }
+
+    // onFailure is told about every command that throws; later commands for the receiver still run
+    public KeyedCommandExecutor(Executor executor, int commandsPerTurn, BiConsumer<Object, RuntimeException> onFailure) {
+        this.executor = executor;
+        this.commandsPerTurn = commandsPerTurn;
+        this.onFailure = onFailure;
+    }
+
+    public void submit(Object receiver, Command command) {
+        Mailbox mailbox = mailboxes.computeIfAbsent(receiver, Mailbox::new);
+        mailbox.commands.add(command);
+        mailbox.schedule();
+    }
+
+    // Serial queue of commands for a single receiver
+    private class Mailbox implements Runnable {
+        private final Object receiver;
+        private final Queue<Command> commands = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(Object receiver) {
+            this.receiver = receiver;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // Leave the mailbox schedulable so the next submit can try again
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < commandsPerTurn; i++) {
+                    Command command = commands.poll();
+                    if (command == null) {
+                        break;
+                    }
+                    try {
+                        command.execute();
+                    } catch (RuntimeException e) {
+                        onFailure.accept(receiver, e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // A command may have arrived after the last poll; go to the back of the line
+                if (!commands.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
+
+// Client code
+public class Main {
+    static final int RECEIVERS = 10_000;
+    static final int COMMANDS_PER_RECEIVER = 10;
+
+    public static void main(String[] args) throws Exception {
+        try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            run("virtual threads", virtualThreads);
+        }
+        ExecutorService platformThreads = Executors.newFixedThreadPool(64);
+        run("64 platform threads", platformThreads);
+        platformThreads.shutdown();
+    }
+
+    // Every command simulates a 1 ms round trip to the device and checks its own order
+    static void run(String name, Executor executor) throws InterruptedException {
+        KeyedCommandExecutor keyed = new KeyedCommandExecutor(executor, 4);
+        int[] lastSeen = new int[RECEIVERS];
+        CountDownLatch done = new CountDownLatch(RECEIVERS * COMMANDS_PER_RECEIVER);
+        AtomicInteger outOfOrder = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= COMMANDS_PER_RECEIVER; i++) {
+            for (int r = 0; r < RECEIVERS; r++) {
+                int receiver = r;
+                int sequence = i;
+                keyed.submit(receiver, () -> {
+                    LockSupport.parkNanos(1_000_000);
+                    if (lastSeen[receiver] != sequence - 1) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    lastSeen[receiver] = sequence;
+                    done.countDown();
+                });
+            }
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.println(name + ": " + (RECEIVERS * COMMANDS_PER_RECEIVER * 1_000_000_000L / elapsed)
+                + " commands/s, out of order: " + outOfOrder.get());
+    }
+}
+
+
+
+// ************************* Timer Wheel Example: *************************
+/*
+Delayed commands ("turn off in 30 minutes") can be kept in a hierarchical timing wheel 
+instead of a priority queue. Each level is a ring of 64 buckets; level 0 buckets cover one 
+tick, level 1 buckets cover 64 ticks, and so on. A command is dropped into the bucket 
+matching its deadline, and when a coarse bucket comes due its commands are cascaded down 
+to finer levels. Inserting and cancelling are O(1) list operations no matter how many 
+commands are pending.
+*/
+
+// Handle for a scheduled command, linked into one bucket of the wheel
+class TimerTask {
+    final Command command;
+    final long periodTicks;
+    long deadline;
+    TimerTask prev;
+    TimerTask next;
+    private final CommandTimer timer;
+
+    TimerTask(CommandTimer timer, Command command, long deadline, long periodTicks) {
+        this.timer = timer;
+        this.command = command;
+        this.deadline = deadline;
+        this.periodTicks = periodTicks;
+    }
+
+    public void cancel() {
+        timer.cancel(this);
+    }
+
+    void unlink() {
+        prev.next = next;
+        next.prev = prev;
+        prev = null;
+        next = null;
+    }
+}
+
+class CommandTimer implements AutoCloseable {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 5;
+
+    private final long tickNanos;
+    private final Executor dispatcher;
+    private final TimerTask[][] buckets = new TimerTask[LEVELS][SLOTS];
+    private final long startNanos = System.nanoTime();
+    private long currentTick;
+    private int pending;
+    private volatile boolean running;
+    private Thread ticker;
+
+    public CommandTimer(long tickMillis, Executor dispatcher) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.dispatcher = dispatcher;
+        // Every bucket is a circular list with a sentinel so unlinking needs no checks
+        for (TimerTask[] level : buckets) {
+            for (int i = 0; i < SLOTS; i++) {
+                TimerTask sentinel = new TimerTask(this, null, 0, 0);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                level[i] = sentinel;
+            }
+        }
+    }
+
+    public TimerTask schedule(Command command, long delay, TimeUnit unit) {
+        return add(command, unit.toNanos(delay), 0);
+    }
+
+    public TimerTask scheduleAtFixedRate(Command command, long initialDelay, long period, TimeUnit unit) {
+        return add(command, unit.toNanos(initialDelay), Math.max(1, unit.toNanos(period) / tickNanos));
+    }
+
+    public synchronized int pendingCount() {
+        return pending;
+    }
+
+    // Starts a thread that advances the wheel in real time
+    public void start() {
+        running = true;
+        ticker = new Thread(() -> {
+            while (running) {
+                LockSupport.parkNanos(tickNanos);
+                advanceTo((System.nanoTime() - startNanos) / tickNanos);
+            }
+        }, "command-timer");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    // Fires every command whose deadline is at or before the given tick
+    public synchronized void advanceTo(long tick) {
+        while (currentTick < tick) {
+            currentTick++;
+            int level = 0;
+            while (level + 1 < LEVELS && slot(currentTick, level) == 0) {
+                level++;
+                cascade(buckets[level][slot(currentTick, level)]);
+            }
+            TimerTask bucket = buckets[0][slot(currentTick, 0)];
+            while (bucket.next != bucket) {
+                TimerTask task = bucket.next;
+                task.unlink();
+                pending--;
+                dispatcher.execute(task.command::execute);
+                if (task.periodTicks > 0) {
+                    task.deadline += task.periodTicks;
+                    insert(task);
+                }
+            }
+        }
+    }
+
+    synchronized void cancel(TimerTask task) {
+        if (task.next != null) {
+            task.unlink();
+            pending--;
+        }
+    }
+
+    private synchronized TimerTask add(Command command, long delayNanos, long periodTicks) {
+        long deadline = currentTick + Math.max(1, (delayNanos + tickNanos - 1) / tickNanos);
+        TimerTask task = new TimerTask(this, command, deadline, periodTicks);
+        insert(task);
+        return task;
+    }
+
+    private void insert(TimerTask task) {
+        long delta = task.deadline - currentTick;
+        long deadline = task.deadline;
+        int level = 0;
+        while (level + 1 < LEVELS && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+            // Beyond the wheel: park in the last top-level bucket and re-check on cascade
+            deadline = currentTick + (1L << (SLOT_BITS * LEVELS)) - 1;
+        }
+        TimerTask bucket = buckets[level][slot(deadline, level)];
+        task.prev = bucket.prev;
+        task.next = bucket;
+        bucket.prev.next = task;
+        bucket.prev = task;
+        pending++;
+    }
+
+    private void cascade(TimerTask bucket) {
+        while (bucket.next != bucket) {
+            TimerTask task = bucket.next;
+            task.unlink();
+            pending--;
+            insert(task);
+        }
+    }
+
+    private static int slot(long tick, int level) {
+        return (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (ticker != null) {
+            try {
+                ticker.join();
+            } catch (InterruptedException e) {
+                // Stop waiting for the last tick but let the caller see the interrupt
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
+
+// Client code
+public class Main {
+    static final int TIMERS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Light porch = new Light();
+        try (CommandTimer timer = new CommandTimer(10, Runnable::run)) {
+            timer.start();
+            timer.schedule(new TurnOnCommand(porch), 50, TimeUnit.MILLISECONDS);
+            TimerTask blink = timer.scheduleAtFixedRate(new TurnOffCommand(porch), 100, 100, TimeUnit.MILLISECONDS);
+            Thread.sleep(350);
+            blink.cancel();
+        }
+
+        // Benchmark: 1M pending "turn off within 30 minutes" timers
+        LongAdder fired = new LongAdder();
+        Command count = fired::increment;
+        Random random = new Random(42);
+        long[] delays = new long[TIMERS];
+        for (int i = 0; i < TIMERS; i++) {
+            delays[i] = 1 + random.nextInt(30 * 60 * 1000);
+        }
+
+        CommandTimer wheel = new CommandTimer(1, Runnable::run);
+        TimerTask[] tasks = new TimerTask[TIMERS];
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMERS; i++) {
+            tasks[i] = wheel.schedule(count, delays[i], TimeUnit.MILLISECONDS);
+        }
+        System.out.println("Timer wheel insert: " + (System.nanoTime() - start) / TIMERS + " ns/op");
+        start = System.nanoTime();
+        for (int i = 0; i < TIMERS; i += 2) {
+            tasks[i].cancel();
+        }
+        System.out.println("Timer wheel cancel: " + (System.nanoTime() - start) / (TIMERS / 2) + " ns/op");
+        start = System.nanoTime();
+        wheel.advanceTo(30 * 60 * 1000 + 1);
+        System.out.println("Timer wheel fired " + fired.sum() + " in " + (System.nanoTime() - start) / 1_000_000
+                + " ms of simulated 30 minutes");
+
+        ScheduledThreadPoolExecutor heap = new ScheduledThreadPoolExecutor(1);
+        heap.setRemoveOnCancelPolicy(true);
+        ScheduledFuture<?>[] futures = new ScheduledFuture<?>[TIMERS];
+        start = System.nanoTime();
+        for (int i = 0; i < TIMERS; i++) {
+            futures[i] = heap.schedule(count::execute, delays[i], TimeUnit.MILLISECONDS);
+        }
+        System.out.println("ScheduledThreadPoolExecutor insert: " + (System.nanoTime() - start) / TIMERS + " ns/op");
+        start = System.nanoTime();
+        for (int i = 0; i < TIMERS; i += 2) {
+            futures[i].cancel(false);
+        }
+        System.out.println("ScheduledThreadPoolExecutor cancel: " + (System.nanoTime() - start) / (TIMERS / 2) + " ns/op");
+        heap.shutdownNow();
+    }
+}
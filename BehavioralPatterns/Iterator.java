@@ -12,6 +12,19 @@ client programs use iterator methods.
 // Aggregate interface
 interface Container {
     Iterator<String> createIterator();
+
+    // Splittable view for parallel traversal; override with a sized spliterator when possible
+    default Spliterator<String> createSpliterator() {
+        return Spliterators.spliteratorUnknownSize(createIterator(), Spliterator.ORDERED);
+    }
+
+    default Stream<String> stream() {
+        return StreamSupport.stream(createSpliterator(), false);
+    }
+
+    default Stream<String> parallelStream() {
+        return StreamSupport.stream(createSpliterator(), true);
+    }
 }
 
 // Concrete Aggregate
@@ -26,6 +39,11 @@ class NameRepository implements Container {
     public Iterator<String> createIterator() {
         return names.iterator();
     }
+
+    @Override
+    public Spliterator<String> createSpliterator() {
+        return names.spliterator();
+    }
 }
 
 // Client code
@@ -49,6 +67,47 @@ public class Main {
 // Aggregate interface
 interface BookCollection {
     Iterator<Book> createIterator();
+
+    // Splittable view for parallel traversal; override with a sized spliterator when possible
+    default Spliterator<Book> createSpliterator() {
+        return Spliterators.spliteratorUnknownSize(createIterator(), Spliterator.ORDERED);
+    }
+
+    default Stream<Book> stream() {
+        return StreamSupport.stream(createSpliterator(), false);
+    }
+
+    default Stream<Book> parallelStream() {
+        return StreamSupport.stream(createSpliterator(), true);
+    }
+
+    // Iterator that can also hand out several books per call; override for a faster one
+    default BatchIterator<Book> createBatchIterator() {
+        Iterator<Book> iterator = createIterator();
+        return new BatchIterator<Book>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Book next() {
+                return iterator.next();
+            }
+        };
+    }
+}
+
+// Iterator interface with bulk retrieval
+interface BatchIterator<T> extends Iterator<T> {
+    // Fills dst from index 0 and returns how many elements were copied (0 at the end)
+    default int nextBatch(T[] dst) {
+        int count = 0;
+        while (count < dst.length && hasNext()) {
+            dst[count++] = next();
+        }
+        return count;
+    }
 }
 
 // Concrete Aggregate
@@ -63,10 +122,20 @@ class Library implements BookCollection {
     public Iterator<Book> createIterator() {
         return new LibraryIterator(books);
     }
+
+    @Override
+    public Spliterator<Book> createSpliterator() {
+        return new LibrarySpliterator(books, 0, books.size());
+    }
+
+    @Override
+    public BatchIterator<Book> createBatchIterator() {
+        return new LibraryIterator(books);
+    }
 }
 
 // Concrete Iterator
-class LibraryIterator implements Iterator<Book> {
+class LibraryIterator implements BatchIterator<Book> {
     private List<Book> books;
     private int position;
 
@@ -90,6 +159,67 @@ class LibraryIterator implements Iterator<Book> {
             throw new IllegalStateException("No more books");
         }
     }
+
+    // Copies the whole batch with one System.arraycopy (inside ArrayList's toArray) instead of a get() per book
+    @Override
+    public int nextBatch(Book[] dst) {
+        int count = Math.min(dst.length, books.size() - position);
+        if (count > 0) {
+            books.subList(position, position + count).toArray(dst);
+            position += count;
+        }
+        return count;
+    }
+}
+
+// Concrete Spliterator: covers books[position, end) and hands half of it to another thread
+class LibrarySpliterator implements Spliterator<Book> {
+    private List<Book> books;
+    private int position;
+    private int end;
+
+    public LibrarySpliterator(List<Book> books, int position, int end) {
+        this.books = books;
+        this.position = position;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Book> action) {
+        if (position < end) {
+            action.accept(books.get(position++));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Book> action) {
+        for (; position < end; position++) {
+            action.accept(books.get(position));
+        }
+    }
+
+    @Override
+    public Spliterator<Book> trySplit() {
+        int middle = (position + end) >>> 1;
+        if (middle <= position) {
+            return null;
+        }
+        Spliterator<Book> prefix = new LibrarySpliterator(books, position, middle);
+        position = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - position;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED;
+    }
 }
 
 // Book class
@@ -120,4 +250,733 @@ public class Main {
             System.out.println("Book Title: " + book.getTitle());
         }
     }
-}
\ No newline at end of file
+}
+
+
+
+// ************************* Parallel Library Example: *************************
+/*
+An external iterator such as LibraryIterator walks the collection on one thread. A 
+Spliterator is an iterator that can also split off part of its remaining elements, which 
+lets the fork-join pool scan a large Library on every core through parallelStream().
+*/
+
+// Client code
+public class Main {
+    static final int BOOKS = 10_000_000;
+
+    public static void main(String[] args) {
+        Library library = new Library();
+        for (int i = 0; i < BOOKS; i++) {
+            library.addBook(new Book("Book number " + i));
+        }
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long matches = 0;
+            Iterator<Book> iterator = library.createIterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getTitle().endsWith("7")) {
+                    matches++;
+                }
+            }
+            long sequential = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long parallelMatches = library.parallelStream()
+                    .filter(book -> book.getTitle().endsWith("7"))
+                    .count();
+            long parallel = System.nanoTime() - start;
+
+            System.out.println("LibraryIterator: " + matches + " in " + sequential / 1_000_000 + " ms, "
+                    + "parallelStream: " + parallelMatches + " in " + parallel / 1_000_000 + " ms");
+        }
+    }
+}
+
+
+// ************************* Off-Heap Library Example: *************************
+/*
+Storing every title as its own Book and String object costs several object headers per 
+book and keeps the garbage collector busy. This aggregate packs all titles as UTF-8 into 
+one direct (off-heap) buffer and remembers where each one starts. Besides the usual 
+iterator, which still creates a Book per element, it offers a cursor: a single reusable 
+object that points at the current title and can compare it without creating anything.
+*/
+
+// Concrete Aggregate
+class OffHeapLibrary implements BookCollection {
+    // Largest direct buffer we ask for; offsets are ints, so the arena cannot outgrow this
+    private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+    private ByteBuffer arena = ByteBuffer.allocateDirect(1 << 16);
+    private int[] offsets = new int[1024];
+    private int size;
+
+    public void addBook(Book book) {
+        addTitle(book.getTitle());
+    }
+
+    public void addTitle(String title) {
+        byte[] utf8 = title.getBytes(StandardCharsets.UTF_8);
+        if (arena.remaining() < utf8.length) {
+            long needed = (long) arena.position() + utf8.length;
+            if (needed > MAX_ARENA) {
+                throw new IllegalStateException("Off-heap library is full: " + needed + " bytes needed");
+            }
+            // Double in long arithmetic so growth past 1 GiB clamps instead of overflowing
+            long grown = Math.min(Math.max(arena.capacity() * 2L, needed), MAX_ARENA);
+            ByteBuffer larger = ByteBuffer.allocateDirect((int) grown);
+            arena.flip();
+            larger.put(arena);
+            arena = larger;
+        }
+        if (size + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size] = arena.position();
+        arena.put(utf8);
+        offsets[++size] = arena.position();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<Book> createIterator() {
+        TitleCursor cursor = createCursor();
+        return new Iterator<Book>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public Book next() {
+                if (!cursor.next()) {
+                    throw new IllegalStateException("No more books");
+                }
+                return new Book(cursor.title());
+            }
+        };
+    }
+
+    public TitleCursor createCursor() {
+        return new TitleCursor();
+    }
+
+    // Flyweight iterator: one instance is moved from title to title
+    class TitleCursor {
+        private int index = -1;
+
+        public boolean hasNext() {
+            return index + 1 < size;
+        }
+
+        public boolean next() {
+            if (!hasNext()) {
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        public int length() {
+            return offsets[index + 1] - offsets[index];
+        }
+
+        public byte byteAt(int i) {
+            return arena.get(offsets[index] + i);
+        }
+
+        // Compares the current title with an already encoded UTF-8 key, byte by byte
+        public int compareTo(byte[] utf8) {
+            int start = offsets[index];
+            int length = length();
+            int common = Math.min(length, utf8.length);
+            for (int i = 0; i < common; i++) {
+                int difference = (arena.get(start + i) & 0xFF) - (utf8[i] & 0xFF);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return length - utf8.length;
+        }
+
+        public boolean titleEquals(byte[] utf8) {
+            return length() == utf8.length && compareTo(utf8) == 0;
+        }
+
+        public boolean startsWith(byte[] utf8) {
+            if (length() < utf8.length) {
+                return false;
+            }
+            int start = offsets[index];
+            for (int i = 0; i < utf8.length; i++) {
+                if (arena.get(start + i) != utf8[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Decodes the current title; this is the only method that allocates
+        public String title() {
+            byte[] utf8 = new byte[length()];
+            arena.get(offsets[index], utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) {
+        OffHeapLibrary library = new OffHeapLibrary();
+        library.addBook(new Book("The Great Gatsby"));
+        library.addBook(new Book("To Kill a Mockingbird"));
+        library.addBook(new Book("1984"));
+        library.addBook(new Book("Pride and Prejudice"));
+
+        Iterator<Book> iterator = library.createIterator();
+        while (iterator.hasNext()) {
+            System.out.println("Book Title: " + iterator.next().getTitle());
+        }
+
+        // Searching through the cursor does not allocate per book
+        byte[] prefix = "To ".getBytes(StandardCharsets.UTF_8);
+        OffHeapLibrary.TitleCursor cursor = library.createCursor();
+        while (cursor.next()) {
+            if (cursor.startsWith(prefix)) {
+                System.out.println("Found: " + cursor.title());
+            }
+        }
+    }
+}
+
+
+
+// ************************* Concurrent Library Example: *************************
+/*
+LibraryIterator reads the live list by position, so a concurrent addBook can make it skip 
+or repeat books. This aggregate stores books in fixed-size chunks that never move once 
+allocated. A writer claims the next index with a compare-and-set and fills its slot, 
+so writers never lock. An iterator remembers how many indexes were claimed when it was 
+created and walks exactly that prefix: a point-in-time snapshot that copies nothing.
+*/
+
+// Concrete Aggregate
+class ConcurrentLibrary implements BookCollection {
+    static final int CHUNK_BITS = 14;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int MAX_CHUNKS = 1 << 16;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Book>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger claimed = new AtomicInteger();
+
+    public void addBook(Book book) {
+        // Iterators wait for every claimed slot to be filled, so validate and allocate before
+        // claiming: once the index is claimed only the store, which cannot fail, is left
+        Objects.requireNonNull(book, "book");
+        int index;
+        AtomicReferenceArray<Book> chunk;
+        do {
+            index = claimed.get();
+            if (index >= MAX_CHUNKS * CHUNK_SIZE) {
+                throw new IllegalStateException("Library is full");
+            }
+            chunk = chunk(index >>> CHUNK_BITS);
+        } while (!claimed.compareAndSet(index, index + 1));
+        chunk.set(index & (CHUNK_SIZE - 1), book);
+    }
+
+    public int size() {
+        return claimed.get();
+    }
+
+    @Override
+    public Iterator<Book> createIterator() {
+        return new SnapshotIterator(claimed.get());
+    }
+
+    private AtomicReferenceArray<Book> chunk(int number) {
+        AtomicReferenceArray<Book> chunk = chunks.get(number);
+        if (chunk == null) {
+            chunks.compareAndSet(number, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = chunks.get(number);
+        }
+        return chunk;
+    }
+
+    // Concrete Iterator over the books that had been claimed when it was created
+    private class SnapshotIterator implements Iterator<Book> {
+        private final int end;
+        private int position;
+
+        SnapshotIterator(int end) {
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < end;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("No more books");
+            }
+            AtomicReferenceArray<Book> chunk = chunk(position >>> CHUNK_BITS);
+            int slot = position & (CHUNK_SIZE - 1);
+            Book book = chunk.get(slot);
+            // The slot was claimed before the snapshot but its writer has not stored it yet
+            while (book == null) {
+                Thread.onSpinWait();
+                book = chunk.get(slot);
+            }
+            position++;
+            return book;
+        }
+    }
+}
+
+// Client code
+public class Main {
+    static final int WRITERS = 4;
+    static final int BOOKS_PER_WRITER = 1_000_000;
+    static final Book[][] BOOKS = new Book[WRITERS][BOOKS_PER_WRITER];
+
+    public static void main(String[] args) throws Exception {
+        for (int w = 0; w < WRITERS; w++) {
+            for (int i = 0; i < BOOKS_PER_WRITER; i++) {
+                BOOKS[w][i] = new Book(w + ":" + i);
+            }
+        }
+
+        // Stress test: readers check every snapshot while writers keep appending
+        ConcurrentLibrary library = new ConcurrentLibrary();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger violations = new AtomicInteger();
+        AtomicInteger snapshots = new AtomicInteger();
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                while (writing.get()) {
+                    int expected = library.size();
+                    Iterator<Book> iterator = library.createIterator();
+                    int[] lastPerWriter = new int[WRITERS];
+                    Arrays.fill(lastPerWriter, -1);
+                    int seen = 0;
+                    while (iterator.hasNext()) {
+                        // Titles are "writer:sequence"; each writer's books must appear in order
+                        String[] parts = iterator.next().getTitle().split(":");
+                        int writer = Integer.parseInt(parts[0]);
+                        int sequence = Integer.parseInt(parts[1]);
+                        if (sequence <= lastPerWriter[writer]) {
+                            violations.incrementAndGet();
+                        }
+                        lastPerWriter[writer] = sequence;
+                        seen++;
+                    }
+                    if (seen < expected) {
+                        violations.incrementAndGet();
+                    }
+                    snapshots.incrementAndGet();
+                }
+            });
+            readers[r].start();
+        }
+        long elapsed = runWriters(library::addBook);
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        System.out.println("Checked " + snapshots.get() + " snapshots of up to " + library.size()
+                + " books, violations: " + violations.get());
+
+        // Throughput of concurrent appends against a Library behind a lock
+        System.out.println("ConcurrentLibrary: " + WRITERS * (long) BOOKS_PER_WRITER * 1_000_000_000L / elapsed + " adds/s");
+        ConcurrentLibrary fresh = new ConcurrentLibrary();
+        elapsed = runWriters(fresh::addBook);
+        System.out.println("ConcurrentLibrary without readers: " + WRITERS * (long) BOOKS_PER_WRITER * 1_000_000_000L / elapsed + " adds/s");
+        Library locked = new Library();
+        elapsed = runWriters(book -> {
+            synchronized (locked) {
+                locked.addBook(book);
+            }
+        });
+        System.out.println("synchronized Library: " + WRITERS * (long) BOOKS_PER_WRITER * 1_000_000_000L / elapsed + " adds/s");
+    }
+
+    // Returns the elapsed nanoseconds for all writers to finish
+    static long runWriters(Consumer<Book> addBook) throws InterruptedException {
+        Thread[] writers = new Thread[WRITERS];
+        long start = System.nanoTime();
+        for (int w = 0; w < WRITERS; w++) {
+            Book[] own = BOOKS[w];
+            writers[w] = new Thread(() -> {
+                for (Book book : own) {
+                    addBook.accept(book);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        return System.nanoTime() - start;
+    }
+}
+
+
+
+// ************************* File-Backed Library Example: *************************
+/*
+A catalog that is larger than the heap can stay on disk. Each book is stored as a record: 
+the title length as an int followed by the UTF-8 bytes. The iterator maps the file one 
+window at a time, decodes a Book only when next() is called and asks the OS to start 
+loading the following window in the background, so heap use stays constant whatever the 
+size of the file.
+*/
+
+// Concrete Aggregate
+class FileBackedLibrary implements BookCollection, AutoCloseable {
+    static final int WINDOW_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+
+    public FileBackedLibrary(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public synchronized void addBook(Book book) throws IOException {
+        byte[] utf8 = book.getTitle().getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > WINDOW_SIZE - Integer.BYTES) {
+            throw new IllegalArgumentException("Title too long");
+        }
+        long end = channel.size();
+        header.clear();
+        header.putInt(utf8.length).flip();
+        ByteBuffer[] record = {header, ByteBuffer.wrap(utf8)};
+        while (header.hasRemaining() || record[1].hasRemaining()) {
+            end += channel.write(record[header.hasRemaining() ? 0 : 1], end);
+        }
+    }
+
+    @Override
+    public Iterator<Book> createIterator() {
+        try {
+            return new MappedIterator(channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Concrete Iterator walking the records that existed when it was created
+    private class MappedIterator implements Iterator<Book> {
+        private final long end;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        MappedIterator(long end) {
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            long position = windowStart + (window == null ? 0 : window.position());
+            if (end - position < Integer.BYTES) {
+                return false;
+            }
+            // A record is only visible once its whole title has been written
+            ensureMapped(position, Integer.BYTES);
+            return end - position - Integer.BYTES >= window.getInt(window.position());
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new IllegalStateException("No more books");
+            }
+            int length = window.getInt(window.position());
+            ensureMapped(windowStart + window.position(), Integer.BYTES + length);
+            window.getInt();
+            byte[] utf8 = new byte[length];
+            window.get(utf8);
+            return new Book(new String(utf8, StandardCharsets.UTF_8));
+        }
+
+        // Remaps so that the window starts at the record when it does not fit in the current one
+        private void ensureMapped(long position, int bytes) {
+            if (window != null && position + bytes <= windowStart + window.limit()) {
+                return;
+            }
+            try {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position));
+                long next = position + window.limit();
+                if (next < end) {
+                    MappedByteBuffer readAhead = channel.map(FileChannel.MapMode.READ_ONLY, next, Math.min(WINDOW_SIZE, end - next));
+                    CompletableFuture.runAsync(readAhead::load);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("catalog", ".books");
+        try (FileBackedLibrary library = new FileBackedLibrary(file)) {
+            library.addBook(new Book("The Great Gatsby"));
+            library.addBook(new Book("To Kill a Mockingbird"));
+            library.addBook(new Book("1984"));
+            library.addBook(new Book("Pride and Prejudice"));
+
+            Iterator<Book> iterator = library.createIterator();
+            while (iterator.hasNext()) {
+                System.out.println("Book Title: " + iterator.next().getTitle());
+            }
+
+            for (int i = 0; i < 5_000_000; i++) {
+                library.addBook(new Book("Book number " + i));
+            }
+            Runtime runtime = Runtime.getRuntime();
+            long start = System.nanoTime();
+            long count = 0;
+            long maxHeap = 0;
+            iterator = library.createIterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                if (++count % 1_000_000 == 0) {
+                    maxHeap = Math.max(maxHeap, runtime.totalMemory() - runtime.freeMemory());
+                }
+            }
+            System.out.println("Read " + count + " books from " + Files.size(file) / (1 << 20) + " MB in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms, heap in use up to " + maxHeap / (1 << 20) + " MB");
+        }
+        Files.delete(file);
+    }
+}
+
+
+
+
+// ************************* Batch Iterator Example: *************************
+/*
+Fetching one element per hasNext()/next() pair costs two calls and a bounds check per book. 
+A batch iterator copies a block of books into an array owned by the caller, and the tight 
+loop over that array is easy for the JIT to optimize. Code that only knows Iterator<Book> 
+keeps working because BatchIterator is still an Iterator.
+*/
+
+// Client code
+public class Main {
+    static final int BOOKS = 5_000_000;
+
+    public static void main(String[] args) {
+        Library library = new Library();
+        for (int i = 0; i < BOOKS; i++) {
+            library.addBook(new Book("Book number " + i));
+        }
+
+        // The loop bodies only count the books: reading every title would cost a cache miss per
+        // book and hide the traversal cost being compared
+        Book[] batch = new Book[256];
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            Iterator<Book> iterator = library.createIterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() != null) {
+                    sum++;
+                }
+            }
+            long perElement = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long batchSum = 0;
+            BatchIterator<Book> batchIterator = library.createBatchIterator();
+            int count;
+            while ((count = batchIterator.nextBatch(batch)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    if (batch[i] != null) {
+                        batchSum++;
+                    }
+                }
+            }
+            long batched = System.nanoTime() - start;
+
+            System.out.println("next(): " + perElement / BOOKS + "." + perElement * 10 / BOOKS % 10 + " ns/book, "
+                    + "nextBatch(): " + batched / BOOKS + "." + batched * 10 / BOOKS % 10 + " ns/book"
+                    + (sum == batchSum ? "" : " (checksum mismatch)"));
+        }
+    }
+}
+
+
+// ************************* Merged Library Example: *************************
+/*
+When a catalog is split over several Library shards that are each sorted, one ordered view 
+does not need a full re-sort. The merging iterator keeps the current head book of every 
+shard in a min-heap, always returns the smallest head and then refills from that shard. 
+Each step costs O(log k) for k shards, and only a small batch per shard is held in memory. 
+With pre-fetching enabled, the next batch of every shard is fetched on another thread while 
+the current one is being merged.
+*/
+
+// Concrete Aggregate: read-only ordered view over sorted shards
+class MergedLibrary implements BookCollection {
+    private final List<? extends BookCollection> shards;
+    private final Comparator<Book> order;
+    private final int batchSize;
+    private final Executor prefetcher;
+
+    // Pass a null prefetcher to fetch every batch on the iterating thread
+    public MergedLibrary(List<? extends BookCollection> shards, Comparator<Book> order, int batchSize, Executor prefetcher) {
+        this.shards = shards;
+        this.order = order;
+        this.batchSize = batchSize;
+        this.prefetcher = prefetcher;
+    }
+
+    @Override
+    public Iterator<Book> createIterator() {
+        return new MergeIterator();
+    }
+
+    // Buffered position inside one shard
+    private class ShardCursor {
+        private final BatchIterator<Book> source;
+        private Book[] batch = new Book[batchSize];
+        private Book[] spare = new Book[batchSize];
+        private CompletableFuture<Integer> pending;
+        private int count;
+        private int position;
+
+        ShardCursor(BookCollection shard) {
+            source = shard.createBatchIterator();
+            count = source.nextBatch(batch);
+            prefetch();
+        }
+
+        Book head() {
+            return batch[position];
+        }
+
+        // Moves to the next book and returns false once the shard is exhausted
+        boolean advance() {
+            batch[position++] = null;
+            if (position < count) {
+                return true;
+            }
+            Book[] filled = spare;
+            spare = batch;
+            batch = filled;
+            count = pending != null ? pending.join() : source.nextBatch(batch);
+            position = 0;
+            prefetch();
+            return count > 0;
+        }
+
+        private void prefetch() {
+            if (prefetcher != null && count > 0) {
+                Book[] target = spare;
+                pending = CompletableFuture.supplyAsync(() -> source.nextBatch(target), prefetcher);
+            }
+        }
+    }
+
+    // Concrete Iterator performing the k-way merge
+    private class MergeIterator implements Iterator<Book> {
+        private final PriorityQueue<ShardCursor> heap =
+                new PriorityQueue<>(Math.max(1, shards.size()), (a, b) -> order.compare(a.head(), b.head()));
+
+        MergeIterator() {
+            for (BookCollection shard : shards) {
+                ShardCursor cursor = new ShardCursor(shard);
+                if (cursor.count > 0) {
+                    heap.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        @Override
+        public Book next() {
+            ShardCursor cursor = heap.poll();
+            if (cursor == null) {
+                throw new IllegalStateException("No more books");
+            }
+            Book book = cursor.head();
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            return book;
+        }
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) {
+        Library first = new Library();
+        first.addBook(new Book("1984"));
+        first.addBook(new Book("Pride and Prejudice"));
+        Library second = new Library();
+        second.addBook(new Book("Brave New World"));
+        second.addBook(new Book("The Great Gatsby"));
+        Library third = new Library();
+        third.addBook(new Book("Moby Dick"));
+        third.addBook(new Book("To Kill a Mockingbird"));
+
+        Comparator<Book> byTitle = Comparator.comparing(Book::getTitle);
+        MergedLibrary catalog = new MergedLibrary(List.of(first, second, third), byTitle, 64, null);
+        Iterator<Book> iterator = catalog.createIterator();
+        while (iterator.hasNext()) {
+            System.out.println("Book Title: " + iterator.next().getTitle());
+        }
+
+        // 64 shards of 100k sorted titles each, merged with and without pre-fetching
+        List<Library> shards = new ArrayList<>();
+        for (int s = 0; s < 64; s++) {
+            Library shard = new Library();
+            for (int i = 0; i < 100_000; i++) {
+                shard.addBook(new Book(String.format("%08d", i * 64 + s)));
+            }
+            shards.add(shard);
+        }
+        ExecutorService prefetcher = Executors.newFixedThreadPool(4);
+        for (Executor executor : Arrays.asList(null, prefetcher)) {
+            long start = System.nanoTime();
+            String previous = "";
+            long count = 0;
+            iterator = new MergedLibrary(shards, byTitle, 1024, executor).createIterator();
+            while (iterator.hasNext()) {
+                String title = iterator.next().getTitle();
+                if (title.compareTo(previous) < 0) {
+                    throw new IllegalStateException("Out of order: " + title);
+                }
+                previous = title;
+                count++;
+            }
+            System.out.println((executor == null ? "Merged " : "Merged with pre-fetch ") + count + " books in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+        prefetcher.shutdown();
+    }
+}
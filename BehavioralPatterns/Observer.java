@@ -21,26 +21,93 @@ interface Observer {
 }
 
 // Subject (Observable)
+// The registry is an array that is never modified in place: every change publishes a new copy,
+// so observers can subscribe or unsubscribe while another thread is notifying.
 class NewsAgency {
-    private List<Observer> observers = new ArrayList<>();
-    private String news;
+    private final AtomicReference<Subscription[]> observers = new AtomicReference<>(new Subscription[0]);
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private volatile String news;
 
-    public void addObserver(Observer observer) {
-        observers.add(observer);
+    public Subscription addObserver(Observer observer) {
+        Subscription subscription = new Subscription(observer);
+        subscribed(observer);
+        Subscription[] current;
+        Subscription[] updated;
+        do {
+            current = observers.get();
+            updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = subscription;
+        } while (!observers.compareAndSet(current, updated));
+        return subscription;
     }
 
     public void removeObserver(Observer observer) {
-        observers.remove(observer);
+        for (Subscription subscription : observers.get()) {
+            if (subscription.observer == observer && subscription.cancel()) {
+                return;
+            }
+        }
     }
 
     public void setNews(String news) {
         this.news = news;
-        notifyObservers();
+        notifyObservers(news);
     }
 
-    private void notifyObservers() {
-        for (Observer observer : observers) {
-            observer.update(news);
+    private void notifyObservers(String news) {
+        for (Subscription subscription : observers.get()) {
+            if (!subscription.isCancelled()) {
+                deliver(subscription.observer, news);
+            }
+        }
+    }
+
+    // Hook around every single update, e.g. for instrumentation
+    protected void deliver(Observer observer, String news) {
+        observer.update(news);
+    }
+
+    // Hooks called before an observer is first notified and after one of its subscriptions ends
+    protected void subscribed(Observer observer) {
+    }
+
+    protected void unsubscribed(Observer observer) {
+    }
+
+    // Drops cancelled subscriptions once they make up half of the array
+    private void compact() {
+        Subscription[] current;
+        Subscription[] updated;
+        do {
+            current = observers.get();
+            updated = Arrays.stream(current).filter(s -> !s.isCancelled()).toArray(Subscription[]::new);
+        } while (!observers.compareAndSet(current, updated));
+        cancelled.addAndGet(updated.length - current.length);
+    }
+
+    // Handle returned by addObserver; cancelling it is O(1) amortized
+    class Subscription {
+        private final Observer observer;
+        private final AtomicBoolean active = new AtomicBoolean(true);
+
+        private Subscription(Observer observer) {
+            this.observer = observer;
+        }
+
+        // Returns false if the subscription had already been cancelled
+        public boolean cancel() {
+            if (!active.compareAndSet(true, false)) {
+                return false;
+            }
+            unsubscribed(observer);
+            if (cancelled.incrementAndGet() * 2 > observers.get().length) {
+                compact();
+            }
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return !active.get();
         }
     }
 }
@@ -72,4 +139,1075 @@ public class Main {
 
         newsAgency.setNews("Breaking news: Important event!");
     }
-}
\ No newline at end of file
+}
+
+
+// ************************* Async NewsAgency Example: *************************
+/*
+Notifying observers on the publisher's thread means one slow observer delays every 
+publication. In the asynchronous agency the publisher only writes the news into a 
+pre-allocated ring buffer. Every observer runs on its own thread and reads the buffer 
+through its own sequence number (the approach of the LMAX Disruptor). What happens when 
+an observer falls a whole ring behind is decided per observer:
+- BLOCK: the publisher waits for it.
+- DROP: news it did not read in time is lost for it.
+- CONFLATE: it skips straight to the latest news.
+*/
+
+enum SlowObserverPolicy {
+    BLOCK, DROP, CONFLATE
+}
+
+// Subject (Observable) publishing through a ring buffer
+class AsyncNewsAgency implements AutoCloseable {
+    private final AtomicReferenceArray<String> slots;
+    private final AtomicLongArray slotSequences;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final List<Subscriber> gating = new CopyOnWriteArrayList<>();
+    private final ReentrantLock sleepLock = new ReentrantLock();
+    private final Condition newsAvailable = sleepLock.newCondition();
+    private final AtomicInteger sleepers = new AtomicInteger();
+
+    public AsyncNewsAgency(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        slots = new AtomicReferenceArray<>(capacity);
+        slotSequences = new AtomicLongArray(capacity);
+        mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slotSequences.set(i, -1);
+        }
+    }
+
+    // The observer receives news published from now on
+    public Subscriber addObserver(Observer observer, SlowObserverPolicy policy) {
+        Subscriber subscriber = new Subscriber(observer, policy, cursor.get());
+        subscribers.add(subscriber);
+        if (policy == SlowObserverPolicy.BLOCK) {
+            gating.add(subscriber);
+        }
+        subscriber.thread.start();
+        return subscriber;
+    }
+
+    public void removeObserver(Subscriber subscriber) {
+        gating.remove(subscriber);
+        subscribers.remove(subscriber);
+        subscriber.stop();
+    }
+
+    public synchronized void setNews(String news) {
+        long sequence = cursor.get() + 1;
+        // Never overwrite news that a blocking observer has not read yet
+        for (Subscriber subscriber : gating) {
+            while (sequence - subscriber.sequence.get() > slots.length()) {
+                Thread.yield();
+            }
+        }
+        int index = (int) sequence & mask;
+        // Invalidate the slot first so that a lagging reader cannot mistake the new news for the old
+        slotSequences.set(index, -1);
+        slots.set(index, news);
+        slotSequences.set(index, sequence);
+        cursor.set(sequence);
+        if (sleepers.get() > 0) {
+            sleepLock.lock();
+            try {
+                newsAvailable.signalAll();
+            } finally {
+                sleepLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.stop();
+        }
+        sleepLock.lock();
+        try {
+            newsAvailable.signalAll();
+        } finally {
+            sleepLock.unlock();
+        }
+        subscribers.clear();
+        gating.clear();
+    }
+
+    private void awaitNews(long sequence) {
+        sleepLock.lock();
+        sleepers.incrementAndGet();
+        try {
+            // Re-check after registering, otherwise a signal sent in between would be missed
+            while (cursor.get() < sequence && !Thread.currentThread().isInterrupted()) {
+                newsAvailable.await(10, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sleepers.decrementAndGet();
+            sleepLock.unlock();
+        }
+    }
+
+    // Reads the news stored for a sequence, or null if it has been overwritten
+    private String read(long sequence) {
+        int index = (int) sequence & mask;
+        String news = slots.get(index);
+        return slotSequences.get(index) == sequence ? news : null;
+    }
+
+    // An observer together with its thread and read position
+    class Subscriber {
+        private final Observer observer;
+        private final SlowObserverPolicy policy;
+        private final AtomicLong sequence;
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Subscriber(Observer observer, SlowObserverPolicy policy, long sequence) {
+            this.observer = observer;
+            this.policy = policy;
+            this.sequence = new AtomicLong(sequence);
+            this.thread = new Thread(this::consume, "news-subscriber");
+            this.thread.setDaemon(true);
+        }
+
+        public long getSequence() {
+            return sequence.get();
+        }
+
+        public long getDelivered() {
+            return delivered.sum();
+        }
+
+        // News this observer never saw because of the DROP or CONFLATE policy
+        public long getSkipped() {
+            return skipped.sum();
+        }
+
+        // Updates that threw; the observer still moves on to the next news
+        public long getFailed() {
+            return failed.sum();
+        }
+
+        void stop() {
+            running = false;
+            thread.interrupt();
+        }
+
+        private void consume() {
+            int idle = 0;
+            while (running) {
+                long available = cursor.get();
+                long next = sequence.get() + 1;
+                if (next > available) {
+                    // Spin briefly, then sleep until the publisher signals so idle observers cost no CPU
+                    if (++idle < 100) {
+                        Thread.onSpinWait();
+                    } else {
+                        awaitNews(next);
+                    }
+                    continue;
+                }
+                idle = 0;
+                if (policy == SlowObserverPolicy.CONFLATE && next < available) {
+                    skipped.add(available - next);
+                    next = available;
+                }
+                for (; next <= available; next++) {
+                    String news = read(next);
+                    if (news == null) {
+                        // Overwritten while we were behind: skip to the oldest news still in the ring
+                        long oldest = cursor.get() - slots.length() + 1;
+                        skipped.add(oldest - next);
+                        next = oldest - 1;
+                        // Record the skip now: if the loop ends here the next pass must not count it again
+                        sequence.lazySet(next);
+                        continue;
+                    }
+                    try {
+                        observer.update(news);
+                        delivered.increment();
+                    } catch (RuntimeException e) {
+                        // A dead subscriber would stall a BLOCK publisher forever, so keep going
+                        failed.increment();
+                    }
+                    sequence.lazySet(next);
+                }
+            }
+        }
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) throws Exception {
+        try (AsyncNewsAgency newsAgency = new AsyncNewsAgency(1024)) {
+            newsAgency.addObserver(new NewsChannel("Channel 1"), SlowObserverPolicy.BLOCK);
+            newsAgency.addObserver(new NewsChannel("Channel 2"), SlowObserverPolicy.CONFLATE);
+            newsAgency.setNews("Breaking news: Important event!");
+            Thread.sleep(100);
+        }
+
+        benchmark(1, 1_000_000);
+        benchmark(10, 200_000);
+        benchmark(1000, 20_000);
+    }
+
+    static void benchmark(int observerCount, int messages) throws InterruptedException {
+        String[] news = new String[1024];
+        for (int i = 0; i < news.length; i++) {
+            news[i] = "News " + i;
+        }
+        Observer ignore = message -> { };
+
+        NewsAgency sync = new NewsAgency();
+        for (int i = 0; i < observerCount; i++) {
+            sync.addObserver(ignore);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            sync.setNews(news[i & 1023]);
+        }
+        long syncElapsed = System.nanoTime() - start;
+
+        try (AsyncNewsAgency async = new AsyncNewsAgency(1 << 14)) {
+            List<AsyncNewsAgency.Subscriber> subscribers = new ArrayList<>();
+            for (int i = 0; i < observerCount; i++) {
+                subscribers.add(async.addObserver(ignore, SlowObserverPolicy.BLOCK));
+            }
+            long[] latencies = new long[messages];
+            start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                long t0 = System.nanoTime();
+                async.setNews(news[i & 1023]);
+                latencies[i] = System.nanoTime() - t0;
+            }
+            for (AsyncNewsAgency.Subscriber subscriber : subscribers) {
+                while (subscriber.getSequence() < messages - 1) {
+                    Thread.sleep(1);
+                }
+            }
+            long asyncElapsed = System.nanoTime() - start;
+            Arrays.sort(latencies);
+            System.out.println(observerCount + " observers: sync " + messages * 1_000_000_000L / syncElapsed
+                    + " news/s, async " + messages * 1_000_000_000L / asyncElapsed + " news/s end to end, "
+                    + "publish p50=" + latencies[messages / 2] + "ns p99=" + latencies[(int) (messages * 0.99)] + "ns");
+        }
+    }
+}
+
+
+
+
+// ************************* Concurrent NewsAgency Example: *************************
+/*
+Because NewsAgency publishes a new array on every registry change, a notification simply 
+walks the array it read at the start. Subscribing or unsubscribing from other threads at 
+the same time is safe, and the notification loop allocates nothing.
+*/
+
+// Client code
+public class Main {
+    public static void main(String[] args) throws Exception {
+        NewsAgency newsAgency = new NewsAgency();
+        LongAdder received = new LongAdder();
+        Observer counter = message -> received.increment();
+        for (int i = 0; i < 100; i++) {
+            newsAgency.addObserver(counter);
+        }
+
+        AtomicBoolean publishing = new AtomicBoolean(true);
+        Thread churn = new Thread(() -> {
+            long subscriptions = 0;
+            while (publishing.get()) {
+                NewsAgency.Subscription subscription = newsAgency.addObserver(counter);
+                subscription.cancel();
+                subscriptions++;
+            }
+            System.out.println("Subscribed and cancelled " + subscriptions + " times while publishing");
+        });
+        churn.start();
+        for (int i = 0; i < 1_000_000; i++) {
+            newsAgency.setNews("News " + (i & 1023));
+        }
+        publishing.set(false);
+        churn.join();
+        System.out.println("Delivered " + received.sum() + " updates without ConcurrentModificationException");
+    }
+}
+
+
+// ************************* Topic NewsAgency Example: *************************
+/*
+When every observer receives every news item, most updates are thrown away by observers 
+that filter on the topic. The topic agency indexes subscriptions instead: exact topics in 
+a hash map and topic prefixes in a trie (one node per character). Publishing looks up the 
+exact topic and walks the trie along the topic's characters, so only matching observers 
+are touched, however many subscribers there are in total. It is a subject of its own rather 
+than a NewsAgency subclass: news without a topic has no place in the index, so an inherited 
+setNews(news) would silently miss every topic subscriber.
+*/
+
+// Subject (Observable) with topic and prefix subscriptions
+class TopicNewsAgency {
+    private static final Observer[] NONE = new Observer[0];
+
+    private final Map<String, Observer[]> byTopic = new ConcurrentHashMap<>();
+    private final TrieNode prefixes = new TrieNode();
+
+    // Trie node; observers hold the subscribers whose prefix ends here
+    private static class TrieNode {
+        final Map<Character, TrieNode> children = new ConcurrentHashMap<>();
+        volatile Observer[] observers = NONE;
+    }
+
+    public synchronized void subscribe(String topic, Observer observer) {
+        byTopic.put(topic, append(byTopic.getOrDefault(topic, NONE), observer));
+    }
+
+    public synchronized void unsubscribe(String topic, Observer observer) {
+        Observer[] remaining = without(byTopic.getOrDefault(topic, NONE), observer);
+        if (remaining.length == 0) {
+            byTopic.remove(topic);
+        } else {
+            byTopic.put(topic, remaining);
+        }
+    }
+
+    public synchronized void subscribePrefix(String prefix, Observer observer) {
+        TrieNode node = prefixes;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new TrieNode());
+        }
+        node.observers = append(node.observers, observer);
+    }
+
+    public synchronized void unsubscribePrefix(String prefix, Observer observer) {
+        TrieNode[] path = new TrieNode[prefix.length() + 1];
+        path[0] = prefixes;
+        for (int i = 0; i < prefix.length(); i++) {
+            path[i + 1] = path[i].children.get(prefix.charAt(i));
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+        TrieNode node = path[prefix.length()];
+        node.observers = without(node.observers, observer);
+        // Unlink nodes left with no subscribers and no children, from the leaf upwards
+        for (int i = prefix.length(); i > 0; i--) {
+            if (path[i].observers.length > 0 || !path[i].children.isEmpty()) {
+                break;
+            }
+            path[i - 1].children.remove(prefix.charAt(i - 1));
+        }
+    }
+
+    // Delivers only to observers of this exact topic or of one of its prefixes
+    public void setNews(String topic, String news) {
+        for (Observer observer : byTopic.getOrDefault(topic, NONE)) {
+            observer.update(news);
+        }
+        TrieNode node = prefixes;
+        for (int i = 0; node != null; i++) {
+            for (Observer observer : node.observers) {
+                observer.update(news);
+            }
+            node = i < topic.length() ? node.children.get(topic.charAt(i)) : null;
+        }
+    }
+
+    private static Observer[] append(Observer[] observers, Observer observer) {
+        Observer[] updated = Arrays.copyOf(observers, observers.length + 1);
+        updated[observers.length] = observer;
+        return updated;
+    }
+
+    private static Observer[] without(Observer[] observers, Observer observer) {
+        return Arrays.stream(observers).filter(o -> o != observer).toArray(Observer[]::new);
+    }
+}
+
+// Client code
+public class Main {
+    static final int SUBSCRIBERS = 10_000;
+    static final int MESSAGES = 100_000;
+
+    public static void main(String[] args) {
+        TopicNewsAgency newsAgency = new TopicNewsAgency();
+        newsAgency.subscribe("sports.football", new NewsChannel("Football Channel"));
+        Observer sportsChannel = new NewsChannel("Sports Channel");
+        newsAgency.subscribePrefix("sports.", sportsChannel);
+        newsAgency.subscribePrefix("", new NewsChannel("Everything Channel"));
+
+        newsAgency.setNews("sports.football", "Final score: 2-1");
+        newsAgency.setNews("weather", "Sunny tomorrow");
+
+        // Removes the "sports." branch of the trie along with the subscription
+        newsAgency.unsubscribePrefix("sports.", sportsChannel);
+        newsAgency.setNews("sports.tennis", "Rain delay");
+
+        // Fan-out cost with 10k subscribers in total and a growing number of matches
+        LongAdder delivered = new LongAdder();
+        for (int matches : new int[] {1, 10, 100, 1000}) {
+            TopicNewsAgency indexed = new TopicNewsAgency();
+            NewsAgency broadcast = new NewsAgency();
+            for (int i = 0; i < SUBSCRIBERS; i++) {
+                String topic = i < matches ? "hot" : "topic." + i;
+                String tag = topic + ":";
+                indexed.subscribe(topic, message -> delivered.increment());
+                // Without an index every observer has to filter the news itself
+                broadcast.addObserver(message -> {
+                    if (message.startsWith(tag)) {
+                        delivered.increment();
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                indexed.setNews("hot", "hot:news");
+            }
+            long indexedNanos = (System.nanoTime() - start) / MESSAGES;
+
+            start = System.nanoTime();
+            for (int i = 0; i < MESSAGES / 100; i++) {
+                broadcast.setNews("hot:news");
+            }
+            long broadcastNanos = (System.nanoTime() - start) / (MESSAGES / 100);
+
+            System.out.println(matches + " of " + SUBSCRIBERS + " subscribers match: indexed "
+                    + indexedNanos + " ns/publish, broadcast " + broadcastNanos + " ns/publish");
+        }
+    }
+}
+
+
+
+// ************************* Conflating Observer Example: *************************
+/*
+Some observers only care about the latest news. Wrapping such an observer in a conflating 
+decorator gives it a single-slot mailbox: update() just overwrites the slot and returns, 
+and a shared worker pool later delivers whatever is in the slot. News that was replaced 
+before being read is skipped, so a slow observer holds at most one pending item and never 
+falls behind the publisher.
+*/
+
+// Decorator adding latest-value delivery to any Observer
+class ConflatingObserver implements Observer {
+    private final Observer delegate;
+    private final Executor workers;
+    private final AtomicReference<String> latest = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public ConflatingObserver(Observer delegate, Executor workers) {
+        this.delegate = delegate;
+        this.workers = workers;
+    }
+
+    @Override
+    public void update(String message) {
+        if (latest.getAndSet(message) != null) {
+            conflated.increment();
+        }
+        schedule();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getConflated() {
+        return conflated.sum();
+    }
+
+    // Deliveries in which the wrapped observer threw
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    // At most one delivery per observer is queued or running at any time
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                workers.execute(this::deliver);
+            } catch (RejectedExecutionException e) {
+                // Leave the mailbox schedulable so that the next update can try again
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void deliver() {
+        try {
+            String message = latest.getAndSet(null);
+            if (message != null) {
+                delegate.update(message);
+                delivered.increment();
+            }
+        } catch (RuntimeException e) {
+            failed.increment();
+        } finally {
+            scheduled.set(false);
+            // News that arrived during delivery still needs a turn
+            if (latest.get() != null) {
+                schedule();
+            }
+        }
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        NewsAgency newsAgency = new NewsAgency();
+
+        Observer slowChannel = message -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.println("Slow channel received news: " + message);
+        };
+        ConflatingObserver conflating = new ConflatingObserver(slowChannel, workers);
+        newsAgency.addObserver(conflating);
+
+        for (int i = 1; i <= 1000; i++) {
+            newsAgency.setNews("Update " + i);
+            if (i % 250 == 0) {
+                Thread.sleep(50);
+            }
+        }
+        Thread.sleep(100);
+        workers.shutdown();
+
+        // The last update is always delivered; the ones in between are skipped
+        System.out.println("Delivered: " + conflating.getDelivered() + ", conflated: " + conflating.getConflated());
+    }
+}
+
+
+
+
+// ************************* Monitored NewsAgency Example: *************************
+/*
+To find out which observers slow down notification, the monitored agency times every 
+update() call and records it in a per-observer histogram. The histogram has a fixed set of 
+buckets whose width grows with the value (16 buckets per power of two, as in HdrHistogram), 
+so recording is one array increment and percentiles stay accurate to a few percent. Every 
+observer also counts dispatched, dropped and failed updates. Observers whose p99 over the 
+most recent updates goes over a threshold are flagged as slow and, if requested, skipped. A 
+skipped observer still gets every Nth news item as a probe, so once it is fast again it is 
+re-evaluated and resumes getting everything. Metrics are dropped with the last subscription.
+*/
+
+// Log-linear latency histogram in nanoseconds
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+
+    public void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(1, nanos)));
+        total.increment();
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    // Returns an upper bound for the given percentile (0 to 100)
+    public long percentile(double percentile) {
+        long target = (long) Math.ceil(count() * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, target)) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int index(long value) {
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent < SUB_BUCKET_BITS) {
+            return (int) value;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
+
+// Immutable metrics snapshot of one observer
+class ObserverMetrics {
+    private final long dispatched;
+    private final long dropped;
+    private final long failed;
+    private final long p50;
+    private final long p99;
+    private final boolean slow;
+
+    public ObserverMetrics(long dispatched, long dropped, long failed, long p50, long p99, boolean slow) {
+        this.dispatched = dispatched;
+        this.dropped = dropped;
+        this.failed = failed;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.slow = slow;
+    }
+
+    public long getDispatched() {
+        return dispatched;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getP50Nanos() {
+        return p50;
+    }
+
+    public long getP99Nanos() {
+        return p99;
+    }
+
+    public boolean isSlow() {
+        return slow;
+    }
+
+    @Override
+    public String toString() {
+        return "dispatched=" + dispatched + ", dropped=" + dropped + ", failed=" + failed
+                + ", p50=" + p50 + "ns, p99=" + p99 + "ns" + (slow ? " SLOW" : "");
+    }
+}
+
+// Subject (Observable) with per-observer instrumentation
+class MonitoredNewsAgency extends NewsAgency {
+    // Window of recent updates a healthy observer is judged on
+    private static final int CHECK_EVERY = 1024;
+    // A dropped observer gets one probe per PROBE_EVERY news and is judged on PROBE_WINDOW probes
+    private static final int PROBE_EVERY = 64;
+    private static final int PROBE_WINDOW = 16;
+
+    private final long p99ThresholdNanos;
+    private final boolean dropSlowObservers;
+    private final Map<Observer, Monitor> monitors = new ConcurrentHashMap<>();
+
+    public MonitoredNewsAgency(long p99ThresholdNanos, boolean dropSlowObservers) {
+        this.p99ThresholdNanos = p99ThresholdNanos;
+        this.dropSlowObservers = dropSlowObservers;
+    }
+
+    // Counters and histograms of one observer
+    private static class Monitor {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final AtomicLong skipped = new AtomicLong();
+        volatile LatencyHistogram recent = new LatencyHistogram();
+        volatile boolean slow;
+        int subscriptions;
+    }
+
+    @Override
+    protected void subscribed(Observer observer) {
+        monitors.compute(observer, (o, monitor) -> {
+            Monitor updated = monitor == null ? new Monitor() : monitor;
+            updated.subscriptions++;
+            return updated;
+        });
+    }
+
+    @Override
+    protected void unsubscribed(Observer observer) {
+        monitors.computeIfPresent(observer, (o, monitor) -> --monitor.subscriptions == 0 ? null : monitor);
+    }
+
+    @Override
+    protected void deliver(Observer observer, String news) {
+        Monitor monitor = monitors.get(observer);
+        if (monitor == null) {
+            // Unsubscribed while this news was being sent out
+            observer.update(news);
+            return;
+        }
+        if (monitor.slow && dropSlowObservers && monitor.skipped.incrementAndGet() % PROBE_EVERY != 0) {
+            monitor.dropped.increment();
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            observer.update(news);
+        } catch (RuntimeException e) {
+            // One failing observer must not keep the others from getting the news
+            monitor.failed.increment();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            monitor.latencies.record(elapsed);
+            monitor.recent.record(elapsed);
+        }
+        evaluate(monitor);
+    }
+
+    // Judges the observer on its latest window only, so a slow one that recovers is let back in
+    private void evaluate(Monitor monitor) {
+        int window = monitor.slow && dropSlowObservers ? PROBE_WINDOW : CHECK_EVERY;
+        if (monitor.recent.count() < window) {
+            return;
+        }
+        synchronized (monitor) {
+            LatencyHistogram recent = monitor.recent;
+            if (recent.count() >= window) {
+                monitor.recent = new LatencyHistogram();
+                monitor.slow = recent.percentile(99) > p99ThresholdNanos;
+            }
+        }
+    }
+
+    public Map<Observer, ObserverMetrics> getMetrics() {
+        Map<Observer, ObserverMetrics> metrics = new LinkedHashMap<>();
+        monitors.forEach((observer, monitor) -> metrics.put(observer, new ObserverMetrics(
+                monitor.latencies.count(), monitor.dropped.sum(), monitor.failed.sum(),
+                monitor.latencies.percentile(50), monitor.latencies.percentile(99), monitor.slow)));
+        return metrics;
+    }
+
+    public List<Observer> getSlowObservers() {
+        List<Observer> slow = new ArrayList<>();
+        monitors.forEach((observer, monitor) -> {
+            if (monitor.slow) {
+                slow.add(observer);
+            }
+        });
+        return slow;
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) {
+        MonitoredNewsAgency newsAgency = new MonitoredNewsAgency(100_000, true);
+
+        AtomicBoolean congested = new AtomicBoolean(true);
+        Observer fast = message -> { };
+        Observer slow = message -> {
+            if (congested.get()) {
+                LockSupport.parkNanos(200_000);
+            }
+        };
+        Observer failing = message -> {
+            throw new IllegalStateException("Channel offline");
+        };
+        newsAgency.addObserver(fast);
+        newsAgency.addObserver(slow);
+        NewsAgency.Subscription failingSubscription = newsAgency.addObserver(failing);
+
+        for (int i = 0; i < 5000; i++) {
+            newsAgency.setNews("News " + i);
+        }
+
+        System.out.println("Fast: " + newsAgency.getMetrics().get(fast));
+        System.out.println("Slow: " + newsAgency.getMetrics().get(slow));
+        System.out.println("Failing: " + newsAgency.getMetrics().get(failing));
+        System.out.println("Slow observers flagged: " + newsAgency.getSlowObservers().size());
+
+        // Once the slow channel recovers, the probes let it back in
+        congested.set(false);
+        for (int i = 0; i < 5000; i++) {
+            newsAgency.setNews("News " + i);
+        }
+        System.out.println("Recovered: " + newsAgency.getMetrics().get(slow));
+
+        failingSubscription.cancel();
+        System.out.println("Observers monitored after cancel: " + newsAgency.getMetrics().size());
+    }
+}
+
+
+// ************************* Shared Memory NewsAgency Example: *************************
+/*
+Several processes on one machine can share a news feed through a memory-mapped file instead 
+of sockets. A writer, registered as an ordinary observer of a NewsAgency, appends each news 
+item to a ring buffer in the file and then publishes the new write position. Readers in any 
+process map the same file, keep their own read position and follow the writer by reading 
+the mapped memory directly, with no system call or copy through the kernel per item. Like 
+a seqlock, the writer first announces the range it is about to overwrite, so a reader that 
+falls a whole ring behind notices it, even in the middle of copying a record, and skips 
+ahead. There must be only one writer per file.
+*/
+
+// Layout shared by writer and readers
+class SharedNewsFile {
+    // Header: write position at 0, data capacity at 8, end of the range being written at 16;
+    // records start after the header
+    static final int HEADER_SIZE = 64;
+    static final int CAPACITY = 8;
+    static final int CLAIMED = 16;
+    static final int PADDING = -1;
+    static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    static MappedByteBuffer map(Path file, int capacity) throws IOException {
+        // Records are 4-byte aligned, so the ring must be too or a length word could straddle the end
+        if (capacity <= 0 || capacity % Integer.BYTES != 0) {
+            throw new IllegalArgumentException("Capacity must be a positive multiple of 4: " + capacity);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+            buffer.order(ByteOrder.nativeOrder());
+            return buffer;
+        }
+    }
+
+    // Maps a file set up by a writer, with the capacity the writer recorded in the header
+    static MappedByteBuffer mapExisting(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CLAIMED).order(ByteOrder.nativeOrder());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) > 0) {
+            }
+        }
+        long capacity = header.hasRemaining() ? 0 : header.getLong(CAPACITY);
+        if (capacity == 0) {
+            throw new IllegalStateException("No news writer has set up " + file);
+        }
+        if (capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalStateException("Corrupt capacity " + capacity + " in " + file);
+        }
+        return map(file, (int) capacity);
+    }
+}
+
+// Observer that forwards news into the shared file
+class SharedMemoryNewsWriter implements Observer {
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long position;
+
+    public SharedMemoryNewsWriter(Path file, int capacity) throws IOException {
+        this.buffer = SharedNewsFile.map(file, capacity);
+        this.capacity = capacity;
+        long recorded = buffer.getLong(SharedNewsFile.CAPACITY);
+        if (recorded != 0 && recorded != capacity) {
+            throw new IllegalArgumentException("File was set up with capacity " + recorded + ", not " + capacity);
+        }
+        this.position = (long) SharedNewsFile.LONGS.getAcquire(buffer, 0);
+        buffer.putLong(SharedNewsFile.CAPACITY, capacity);
+    }
+
+    @Override
+    public synchronized void update(String message) {
+        byte[] utf8 = message.getBytes(StandardCharsets.UTF_8);
+        int size = (Integer.BYTES + utf8.length + 3) & ~3;
+        if (size > capacity / 2) {
+            throw new IllegalArgumentException("News too large for the shared ring");
+        }
+        int offset = (int) (position % capacity);
+        // Records never wrap: the tail is marked as padding and the record starts at the beginning
+        boolean wraps = offset + size > capacity;
+        long end = position + (wraps ? capacity - offset : 0) + size;
+        // Announce the overwrite before touching any byte, so readers of the old data can tell
+        SharedNewsFile.LONGS.setRelease(buffer, SharedNewsFile.CLAIMED, end);
+        VarHandle.storeStoreFence();
+        if (wraps) {
+            buffer.putInt(SharedNewsFile.HEADER_SIZE + offset, SharedNewsFile.PADDING);
+            offset = 0;
+        }
+        buffer.putInt(SharedNewsFile.HEADER_SIZE + offset, utf8.length);
+        buffer.put(SharedNewsFile.HEADER_SIZE + offset + Integer.BYTES, utf8);
+        position = end;
+        // Release store: readers that see the new position also see the record
+        SharedNewsFile.LONGS.setRelease(buffer, 0, position);
+    }
+
+    // Position of the end of the last published news item
+    public synchronized long getPosition() {
+        return position;
+    }
+}
+
+// Follows the shared file and hands each news item to a local observer
+class SharedMemoryNewsReader {
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long position;
+    private long lost;
+    private byte[] scratch = new byte[256];
+
+    // Starts reading at the news published from now on; the writer must have set up the file
+    public SharedMemoryNewsReader(Path file) throws IOException {
+        this.buffer = SharedNewsFile.mapExisting(file);
+        this.capacity = buffer.capacity() - SharedNewsFile.HEADER_SIZE;
+        this.position = (long) SharedNewsFile.LONGS.getAcquire(buffer, 0);
+    }
+
+    // Delivers everything published since the last call and returns how many items that was
+    public int poll(Observer observer) {
+        int count = 0;
+        while (true) {
+            long published = (long) SharedNewsFile.LONGS.getAcquire(buffer, 0);
+            if (position >= published) {
+                break;
+            }
+            if (published - position > capacity) {
+                skipTo(published);
+                break;
+            }
+            int offset = (int) (position % capacity);
+            int length = buffer.getInt(SharedNewsFile.HEADER_SIZE + offset);
+            if (length == SharedNewsFile.PADDING) {
+                position += capacity - offset;
+                continue;
+            }
+            // A length that cannot fit means the writer overwrote the record under us
+            if (length < 0 || offset + Integer.BYTES + length > capacity) {
+                skipTo((long) SharedNewsFile.LONGS.getAcquire(buffer, 0));
+                break;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            buffer.get(SharedNewsFile.HEADER_SIZE + offset + Integer.BYTES, scratch, 0, length);
+            // The writer may have started overwriting the record while we were copying; if so the
+            // copy is garbage. The fence keeps the copy's loads from moving past the claim check
+            VarHandle.loadLoadFence();
+            long claimed = (long) SharedNewsFile.LONGS.getAcquire(buffer, SharedNewsFile.CLAIMED);
+            if (claimed - position > capacity) {
+                skipTo((long) SharedNewsFile.LONGS.getAcquire(buffer, 0));
+                break;
+            }
+            position += (Integer.BYTES + length + 3) & ~3;
+            observer.update(new String(scratch, 0, length, StandardCharsets.UTF_8));
+            count++;
+        }
+        return count;
+    }
+
+    private void skipTo(long published) {
+        lost++;
+        position = published;
+    }
+
+    // Position just past the last news item this reader consumed or skipped
+    public long getPosition() {
+        return position;
+    }
+
+    // Number of times this reader was lapped by the writer and skipped ahead
+    public long getLost() {
+        return lost;
+    }
+}
+
+// Client code
+public class Main {
+    static final int MESSAGES = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        Path file = Files.createTempFile("news", ".ring");
+        NewsAgency newsAgency = new NewsAgency();
+        SharedMemoryNewsWriter writer = new SharedMemoryNewsWriter(file, 1 << 20);
+        newsAgency.addObserver(writer);
+
+        // In another process this would be the only code needed to follow the feed
+        SharedMemoryNewsReader reader = new SharedMemoryNewsReader(file);
+        newsAgency.setNews("Breaking news: Important event!");
+        reader.poll(new NewsChannel("Channel 1"));
+
+        // Shared memory: timestamps travel inside the news to measure publish-to-receive latency
+        long[] latencies = new long[MESSAGES];
+        int[] received = new int[1];
+        // Set once the writer is done; the follower stops when it has caught up with it, even if lapped
+        AtomicLong finalPosition = new AtomicLong(-1);
+        Thread follower = new Thread(() -> {
+            Observer timing = message -> latencies[received[0]++] = System.nanoTime() - Long.parseLong(message);
+            while (true) {
+                if (reader.poll(timing) == 0) {
+                    long end = finalPosition.get();
+                    if (end >= 0 && reader.getPosition() >= end) {
+                        break;
+                    }
+                    Thread.onSpinWait();
+                }
+            }
+        });
+        follower.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            newsAgency.setNews(Long.toString(System.nanoTime()));
+            // Keep the writer from lapping the single-core reader in this demo
+            if ((i & 1023) == 0) {
+                Thread.yield();
+            }
+        }
+        finalPosition.set(writer.getPosition());
+        follower.join();
+        report("shared memory", System.nanoTime() - start, latencies, received[0]);
+        System.out.println("Times lapped: " + reader.getLost());
+        Files.delete(file);
+
+        // Loopback TCP stand-in with the same payload
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread tcpFollower = new Thread(() -> {
+                try (Socket socket = server.accept();
+                     DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                    for (int i = 0; i < MESSAGES; i++) {
+                        latencies[i] = System.nanoTime() - Long.parseLong(in.readUTF());
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            tcpFollower.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+                socket.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                start = System.nanoTime();
+                for (int i = 0; i < MESSAGES; i++) {
+                    out.writeUTF(Long.toString(System.nanoTime()));
+                }
+                out.flush();
+                tcpFollower.join();
+            }
+            report("loopback TCP", System.nanoTime() - start, latencies, MESSAGES);
+        }
+    }
+
+    // Throughput counts everything sent; latency only covers the count items actually received
+    static void report(String name, long elapsed, long[] latencies, int count) {
+        Arrays.sort(latencies, 0, count);
+        System.out.println(name + ": " + MESSAGES * 1_000_000_000L / elapsed + " news/s, latency p50="
+                + latencies[count / 2] / 1_000 + "us p99=" + latencies[(int) (count * 0.99)] / 1_000 + "us");
+    }
+}
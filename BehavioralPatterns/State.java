@@ -82,4 +82,672 @@ public class Main {
         vendingMachine.insertCoin();  // Coin inserted
         vendingMachine.selectItem();  // Dispensing item
     }
-}
\ No newline at end of file
+}
+
+
+// ************************* Flyweight VendingMachine Example: *************************
+/*
+The states above keep a reference to their machine, so a new state object is created on 
+every transition. States do not need their own data, though: if the machine is passed in 
+when an event is handled, one shared instance of each state is enough (the Flyweight 
+pattern). Here the states are enum constants, and every transition is compiled into two 
+tables indexed by [state][event]: the next state and the action to run. Handling an event 
+is then two array lookups and creates no objects.
+*/
+
+enum VendingState {
+    READY, ITEM_SELECTED
+}
+
+enum VendingEvent {
+    INSERT_COIN, SELECT_ITEM
+}
+
+// Action run on a transition; implementations are shared and keep no state
+interface TransitionAction {
+    void run(FlyweightVendingMachine machine);
+}
+
+// Transition tables built once and shared by every machine
+class StateTable {
+    private final int[][] next;
+    private final TransitionAction[][] actions;
+
+    private StateTable(int[][] next, TransitionAction[][] actions) {
+        this.next = next;
+        this.actions = actions;
+    }
+
+    // Runs the action of the transition and returns the index of the next state
+    int fire(FlyweightVendingMachine machine, int state, int event) {
+        actions[state][event].run(machine);
+        return next[state][event];
+    }
+
+    static class Builder {
+        private final int[][] next = new int[VendingState.values().length][VendingEvent.values().length];
+        private final TransitionAction[][] actions =
+                new TransitionAction[VendingState.values().length][VendingEvent.values().length];
+
+        public Builder on(VendingState from, VendingEvent event, VendingState to, TransitionAction action) {
+            next[from.ordinal()][event.ordinal()] = to.ordinal();
+            actions[from.ordinal()][event.ordinal()] = action;
+            return this;
+        }
+
+        public StateTable build() {
+            for (VendingState state : VendingState.values()) {
+                for (VendingEvent event : VendingEvent.values()) {
+                    if (actions[state.ordinal()][event.ordinal()] == null) {
+                        throw new IllegalStateException("No transition for " + state + " on " + event);
+                    }
+                }
+            }
+            return new StateTable(next, actions);
+        }
+    }
+}
+
+// Context holding only the index of its current state
+class FlyweightVendingMachine {
+    static final StateTable TABLE = new StateTable.Builder()
+            .on(VendingState.READY, VendingEvent.INSERT_COIN, VendingState.ITEM_SELECTED,
+                    machine -> machine.display("Coin inserted"))
+            .on(VendingState.READY, VendingEvent.SELECT_ITEM, VendingState.READY,
+                    machine -> machine.display("Insert coin first"))
+            .on(VendingState.ITEM_SELECTED, VendingEvent.INSERT_COIN, VendingState.ITEM_SELECTED,
+                    machine -> machine.display("Coin already inserted"))
+            .on(VendingState.ITEM_SELECTED, VendingEvent.SELECT_ITEM, VendingState.READY,
+                    machine -> machine.display("Dispensing item"))
+            .build();
+
+    private static final int INSERT_COIN = VendingEvent.INSERT_COIN.ordinal();
+    private static final int SELECT_ITEM = VendingEvent.SELECT_ITEM.ordinal();
+    private static final VendingState[] STATES = VendingState.values();
+
+    private int state = VendingState.READY.ordinal();
+
+    public void insertCoin() {
+        state = TABLE.fire(this, state, INSERT_COIN);
+    }
+
+    public void selectItem() {
+        state = TABLE.fire(this, state, SELECT_ITEM);
+    }
+
+    public VendingState getState() {
+        return STATES[state];
+    }
+
+    void display(String message) {
+        System.out.println(message);
+    }
+}
+
+// Client code
+public class Main {
+    static final int TRANSITIONS = 10_000_000;
+
+    public static void main(String[] args) {
+        FlyweightVendingMachine vendingMachine = new FlyweightVendingMachine();
+        vendingMachine.selectItem();  // Insert coin first
+        vendingMachine.insertCoin();  // Coin inserted
+        vendingMachine.selectItem();  // Dispensing item
+
+        // The State-object machine prints on every transition, so silence the output for both
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        for (int round = 0; round < 3; round++) {
+            VendingMachine objects = new VendingMachine();
+            long bytes = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < TRANSITIONS / 2; i++) {
+                objects.insertCoin();
+                objects.selectItem();
+            }
+            long objectNanos = System.nanoTime() - start;
+            long objectBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+            FlyweightVendingMachine table = new FlyweightVendingMachine();
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < TRANSITIONS / 2; i++) {
+                table.insertCoin();
+                table.selectItem();
+            }
+            long tableNanos = System.nanoTime() - start;
+            long tableBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+            console.println("State objects: " + objectNanos / (TRANSITIONS / 1000) / 1000.0 + " ns and "
+                    + objectBytes / TRANSITIONS + " bytes per transition; table: "
+                    + tableNanos / (TRANSITIONS / 1000) / 1000.0 + " ns and " + tableBytes / TRANSITIONS + " bytes");
+        }
+        System.setOut(console);
+    }
+}
+
+
+
+// ************************* Concurrent VendingMachine Example: *************************
+/*
+With a plain state field, two threads can both read ReadyState and both go on to dispense. 
+The concurrent machine changes its state only with compare-and-set: a thread reads the 
+current state, decides on the transition and installs the new state only if nobody changed 
+it in the meantime; otherwise it reads the state again and retries. Exactly one thread wins 
+each transition, so every accepted coin leads to at most one dispensed item.
+*/
+
+// Context with atomic transitions between the shared VendingState constants
+class ConcurrentVendingMachine {
+    private final AtomicReference<VendingState> state = new AtomicReference<>(VendingState.READY);
+
+    // Returns true if the coin was accepted
+    public boolean insertCoin() {
+        while (true) {
+            VendingState current = state.get();
+            if (current != VendingState.READY) {
+                return false;
+            }
+            if (state.compareAndSet(current, VendingState.ITEM_SELECTED)) {
+                return true;
+            }
+        }
+    }
+
+    // Returns true if an item was dispensed
+    public boolean selectItem() {
+        while (true) {
+            VendingState current = state.get();
+            if (current != VendingState.ITEM_SELECTED) {
+                return false;
+            }
+            if (state.compareAndSet(current, VendingState.READY)) {
+                return true;
+            }
+        }
+    }
+
+    public VendingState getState() {
+        return state.get();
+    }
+}
+
+// Baseline guarding the same transitions with a lock
+class SynchronizedVendingMachine {
+    private VendingState state = VendingState.READY;
+
+    public synchronized boolean insertCoin() {
+        if (state != VendingState.READY) {
+            return false;
+        }
+        state = VendingState.ITEM_SELECTED;
+        return true;
+    }
+
+    public synchronized boolean selectItem() {
+        if (state != VendingState.ITEM_SELECTED) {
+            return false;
+        }
+        state = VendingState.READY;
+        return true;
+    }
+
+    public synchronized VendingState getState() {
+        return state;
+    }
+}
+
+// Client code
+public class Main {
+    static final int THREADS = 4;
+    static final int OPERATIONS_PER_THREAD = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        ConcurrentVendingMachine vendingMachine = new ConcurrentVendingMachine();
+        System.out.println(vendingMachine.selectItem() ? "Dispensing item" : "Insert coin first");
+        System.out.println(vendingMachine.insertCoin() ? "Coin inserted" : "Coin already inserted");
+        System.out.println(vendingMachine.selectItem() ? "Dispensing item" : "Insert coin first");
+
+        // Stress test: every dispensed item must be paid by exactly one accepted coin
+        for (int round = 0; round < 3; round++) {
+            ConcurrentVendingMachine cas = new ConcurrentVendingMachine();
+            long[] counts = run(cas::insertCoin, cas::selectItem);
+            check("compare-and-set", counts, cas.getState());
+
+            SynchronizedVendingMachine locked = new SynchronizedVendingMachine();
+            counts = run(locked::insertCoin, locked::selectItem);
+            check("synchronized", counts, locked.getState());
+        }
+    }
+
+    // Returns {accepted coins, dispensed items, elapsed nanoseconds}
+    static long[] run(BooleanSupplier insertCoin, BooleanSupplier selectItem) throws InterruptedException {
+        LongAdder accepted = new LongAdder();
+        LongAdder dispensed = new LongAdder();
+        Thread[] threads = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                Random random = new Random();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    if (random.nextBoolean()) {
+                        if (insertCoin.getAsBoolean()) {
+                            accepted.increment();
+                        }
+                    } else if (selectItem.getAsBoolean()) {
+                        dispensed.increment();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new long[] {accepted.sum(), dispensed.sum(), System.nanoTime() - start};
+    }
+
+    static void check(String name, long[] counts, VendingState finalState) {
+        long pending = finalState == VendingState.ITEM_SELECTED ? 1 : 0;
+        boolean consistent = counts[0] == counts[1] + pending;
+        System.out.println(name + ": " + THREADS * (long) OPERATIONS_PER_THREAD * 1_000_000_000L / counts[2]
+                + " operations/s, " + counts[0] + " coins, " + counts[1] + " items, "
+                + (consistent ? "consistent" : "INCONSISTENT"));
+    }
+}
+
+
+
+// ************************* Vending Fleet Example: *************************
+/*
+Simulating millions of machines with one context object and one state object each spends 
+most of the memory on object headers and references. The fleet keeps the state of every 
+machine as one byte in a single array (a struct-of-arrays layout) and applies events with 
+a lookup in a small transition table. Events arrive in batches; the machines are split 
+into partitions. A batch is first sorted into one bucket per partition (a counting sort 
+that keeps the order of the events), then the partitions process their own buckets in 
+parallel, so no locking is needed and each machine sees its events in order.
+*/
+
+class VendingFleet {
+    static final byte INSERT_COIN = (byte) VendingEvent.INSERT_COIN.ordinal();
+    static final byte SELECT_ITEM = (byte) VendingEvent.SELECT_ITEM.ordinal();
+
+    private static final byte READY = (byte) VendingState.READY.ordinal();
+    private static final byte ITEM_SELECTED = (byte) VendingState.ITEM_SELECTED.ordinal();
+    // Next state indexed by [state][event], flattened
+    private static final byte[] NEXT = {ITEM_SELECTED, READY, ITEM_SELECTED, READY};
+
+    private final byte[] states;
+    private final int partitions;
+    private final int machinesPerPartition;
+    private final long[] dispensed;
+    // Bucket boundaries and event indexes sorted by partition, reused between batches
+    private final int[] bucketStarts;
+    private int[] order = new int[0];
+
+    public VendingFleet(int machines, int partitions) {
+        this.states = new byte[machines];
+        this.partitions = partitions;
+        this.machinesPerPartition = (machines + partitions - 1) / partitions;
+        // Spaced 8 longs apart so partitions do not share a cache line
+        this.dispensed = new long[partitions * 8];
+        this.bucketStarts = new int[partitions + 1];
+    }
+
+    // Applies events[i] to machine machineIds[i], in order per machine; not for concurrent callers
+    public void process(int[] machineIds, byte[] events, int count) {
+        bucket(machineIds, count);
+        IntStream.range(0, partitions).parallel().forEach(partition -> {
+            long items = 0;
+            for (int k = bucketStarts[partition]; k < bucketStarts[partition + 1]; k++) {
+                int i = order[k];
+                int machine = machineIds[i];
+                byte state = states[machine];
+                byte event = events[i];
+                if (state == ITEM_SELECTED && event == SELECT_ITEM) {
+                    items++;
+                }
+                states[machine] = NEXT[state * 2 + event];
+            }
+            dispensed[partition * 8] += items;
+        });
+    }
+
+    // Counting sort of the event indexes by partition, stable so per-machine order is kept
+    private void bucket(int[] machineIds, int count) {
+        if (order.length < count) {
+            order = new int[count];
+        }
+        Arrays.fill(bucketStarts, 0);
+        for (int i = 0; i < count; i++) {
+            bucketStarts[machineIds[i] / machinesPerPartition + 1]++;
+        }
+        for (int partition = 0; partition < partitions; partition++) {
+            bucketStarts[partition + 1] += bucketStarts[partition];
+        }
+        int[] next = Arrays.copyOf(bucketStarts, partitions);
+        for (int i = 0; i < count; i++) {
+            order[next[machineIds[i] / machinesPerPartition]++] = i;
+        }
+    }
+
+    public VendingState getState(int machine) {
+        return VendingState.values()[states[machine]];
+    }
+
+    public long getDispensed() {
+        long total = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            total += dispensed[partition * 8];
+        }
+        return total;
+    }
+}
+
+// Client code
+public class Main {
+    static final int MACHINES = 10_000_000;
+    static final int BATCH = 1 << 20;
+
+    public static void main(String[] args) {
+        VendingFleet fleet = new VendingFleet(MACHINES, Runtime.getRuntime().availableProcessors());
+        int[] machineIds = new int[BATCH];
+        byte[] events = new byte[BATCH];
+        Random random = new Random(7);
+        for (int i = 0; i < BATCH; i++) {
+            machineIds[i] = random.nextInt(MACHINES);
+            events[i] = random.nextBoolean() ? VendingFleet.INSERT_COIN : VendingFleet.SELECT_ITEM;
+        }
+
+        long start = System.nanoTime();
+        int batches = 50;
+        for (int b = 0; b < batches; b++) {
+            fleet.process(machineIds, events, BATCH);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Fleet: " + (long) batches * BATCH * 1_000_000_000L / elapsed + " events/s, "
+                + fleet.getDispensed() + " items dispensed, 1 byte per machine");
+
+        // Memory of the object model, measured on a sample of machines
+        int sample = 1_000_000;
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        VendingMachine[] objects = new VendingMachine[sample];
+        for (int i = 0; i < sample; i++) {
+            objects[i] = new VendingMachine();
+        }
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println("Object model: about " + (after - before) / sample + " bytes per machine");
+
+        // The State objects print on every transition, so silence the output while measuring
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        start = System.nanoTime();
+        for (int b = 0; b < batches; b++) {
+            for (int i = 0; i < BATCH; i++) {
+                VendingMachine machine = objects[machineIds[i] % sample];
+                if (events[i] == VendingFleet.INSERT_COIN) {
+                    machine.insertCoin();
+                } else {
+                    machine.selectItem();
+                }
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        System.setOut(console);
+        System.out.println("Object model: " + (long) batches * BATCH * 1_000_000_000L / elapsed + " events/s");
+    }
+}
+
+
+
+// ************************* Event-Sourced VendingMachine Example: *************************
+/*
+Instead of only keeping the current state, an event-sourced fleet appends every 
+insertCoin/selectItem it receives to a log, which doubles as an audit trail. The state of 
+any machine can be rebuilt by replaying the log from the start. To keep recovery fast, the 
+fleet regularly writes a snapshot of all states together with the log position it covers; 
+recovery loads the newest snapshot and replays only the log written after it. Each log 
+entry is a single varint holding the machine number and the event, usually 1 to 4 bytes.
+*/
+
+class EventSourcedVendingFleet implements AutoCloseable {
+    private static final byte READY = (byte) VendingState.READY.ordinal();
+    private static final byte ITEM_SELECTED = (byte) VendingState.ITEM_SELECTED.ordinal();
+
+    private final byte[] states;
+    private final Path snapshotFile;
+    private final FileChannel log;
+    private final ByteBuffer pending = ByteBuffer.allocateDirect(1 << 16);
+    private final long snapshotEvery;
+    private long logPosition;
+    private long sinceSnapshot;
+
+    // Opens the fleet in the directory, recovering from the snapshot and log found there
+    public EventSourcedVendingFleet(Path directory, int machines, long snapshotEvery) throws IOException {
+        this.states = new byte[machines];
+        this.snapshotFile = directory.resolve("fleet.snapshot");
+        this.snapshotEvery = snapshotEvery;
+        this.log = FileChannel.open(directory.resolve("fleet.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long replayFrom = loadSnapshot();
+        logPosition = replay(replayFrom);
+    }
+
+    // The machine is checked before the event is logged, so a bad call can never poison the log
+    public synchronized void insertCoin(int machine) throws IOException {
+        Objects.checkIndex(machine, states.length);
+        append(machine, VendingFleet.INSERT_COIN);
+        if (states[machine] == READY) {
+            states[machine] = ITEM_SELECTED;
+        }
+        snapshotIfDue();
+    }
+
+    public synchronized void selectItem(int machine) throws IOException {
+        Objects.checkIndex(machine, states.length);
+        append(machine, VendingFleet.SELECT_ITEM);
+        if (states[machine] == ITEM_SELECTED) {
+            states[machine] = READY;
+        }
+        snapshotIfDue();
+    }
+
+    public synchronized VendingState getState(int machine) {
+        return VendingState.values()[states[machine]];
+    }
+
+    // Writes all states and the log position they include, replacing the previous snapshot
+    public synchronized void snapshot() throws IOException {
+        flush();
+        log.force(false);
+        Path temporary = snapshotFile.resolveSibling("fleet.snapshot.tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+            header.putLong(logPosition).putInt(states.length).flip();
+            out.write(new ByteBuffer[] {header, ByteBuffer.wrap(states)});
+            out.force(false);
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sinceSnapshot = 0;
+    }
+
+    public synchronized void flush() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            log.write(pending, logPosition - pending.remaining());
+        }
+        pending.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        log.force(false);
+        log.close();
+    }
+
+    private void append(int machine, byte event) throws IOException {
+        if (pending.remaining() < 5) {
+            flush();
+        }
+        int value = machine << 1 | event;
+        while ((value & ~0x7F) != 0) {
+            pending.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            logPosition++;
+        }
+        pending.put((byte) value);
+        logPosition++;
+    }
+
+    // Called only once the event is applied, so the snapshot covers everything up to logPosition
+    private void snapshotIfDue() throws IOException {
+        if (++sinceSnapshot >= snapshotEvery) {
+            snapshot();
+        }
+    }
+
+    // Returns the log position covered by the snapshot, or 0 when there is none
+    private long loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        try (FileChannel in = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+            in.read(header, 0);
+            header.flip();
+            long position = header.getLong();
+            if (header.getInt() != states.length) {
+                throw new IllegalStateException("Snapshot was taken for a different fleet size");
+            }
+            ByteBuffer body = ByteBuffer.wrap(states);
+            while (body.hasRemaining()) {
+                if (in.read(body, header.capacity() + body.position()) < 0) {
+                    throw new IllegalStateException("Snapshot is truncated");
+                }
+            }
+            return position;
+        }
+    }
+
+    // Applies every complete log entry after the given position and returns the end position
+    private long replay(long position) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 20);
+        long end = position;
+        int value = 0;
+        int shift = 0;
+        while (log.read(chunk, position) > 0) {
+            chunk.flip();
+            position += chunk.remaining();
+            while (chunk.hasRemaining()) {
+                byte b = chunk.get();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+                if (b >= 0) {
+                    int machine = value >>> 1;
+                    if (machine >= states.length) {
+                        throw new IllegalStateException("Log entry at byte " + end + " is for machine "
+                                + machine + ", but the fleet has " + states.length + " machines");
+                    }
+                    byte state = states[machine];
+                    if ((value & 1) == VendingFleet.INSERT_COIN) {
+                        states[machine] = state == READY ? ITEM_SELECTED : state;
+                    } else {
+                        states[machine] = state == ITEM_SELECTED ? READY : state;
+                    }
+                    end = position - chunk.remaining();
+                    value = 0;
+                    shift = 0;
+                }
+            }
+            chunk.clear();
+        }
+        // Drop a torn entry left at the end of the log by a crash
+        log.truncate(end);
+        return end;
+    }
+}
+
+// Client code
+public class Main {
+    static final int MACHINES = 5_000_000;
+    static final int EVENTS = 50_000_000;
+
+    public static void main(String[] args) throws Exception {
+        // Recovery check: snapshots every 3 events, so the 10 events below cross several snapshots
+        Path small = Files.createTempDirectory("fleet");
+        VendingState[] live = new VendingState[4];
+        try (EventSourcedVendingFleet fleet = new EventSourcedVendingFleet(small, live.length, 3)) {
+            for (int i = 0; i < 10; i++) {
+                if (i % 4 == 3) {
+                    fleet.selectItem(i % live.length);
+                } else {
+                    fleet.insertCoin(i % live.length);
+                }
+            }
+            for (int machine = 0; machine < live.length; machine++) {
+                live[machine] = fleet.getState(machine);
+            }
+        }
+        try (EventSourcedVendingFleet reopened = new EventSourcedVendingFleet(small, live.length, 3)) {
+            boolean same = true;
+            for (int machine = 0; machine < live.length; machine++) {
+                same &= reopened.getState(machine) == live[machine];
+            }
+            System.out.println("Recovered across snapshots: " + (same ? "all states match" : "STATES DIFFER"));
+        }
+        deleteDirectory(small);
+
+        Path directory = Files.createTempDirectory("fleet");
+        Random random = new Random(3);
+        try (EventSourcedVendingFleet fleet = new EventSourcedVendingFleet(directory, MACHINES, 20_000_000)) {
+            fleet.insertCoin(42);
+            fleet.selectItem(7);
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                int machine = random.nextInt(MACHINES);
+                if (random.nextBoolean()) {
+                    fleet.insertCoin(machine);
+                } else {
+                    fleet.selectItem(machine);
+                }
+            }
+            fleet.insertCoin(42);
+            System.out.println("Recorded " + EVENTS + " events in " + (System.nanoTime() - start) / 1_000_000 + " ms, "
+                    + "machine 42 is " + fleet.getState(42));
+        }
+
+        // Simulated crash recovery: load the snapshot and replay the log tail
+        long start = System.nanoTime();
+        try (EventSourcedVendingFleet recovered = new EventSourcedVendingFleet(directory, MACHINES, 20_000_000)) {
+            System.out.println("Recovered " + MACHINES + " machines in " + (System.nanoTime() - start) / 1_000_000
+                    + " ms, machine 42 is " + recovered.getState(42));
+        }
+        System.out.println("Log size: " + Files.size(directory.resolve("fleet.log")) / (1 << 20) + " MB");
+
+        // Full replay without the snapshot, for comparison
+        Files.delete(directory.resolve("fleet.snapshot"));
+        start = System.nanoTime();
+        try (EventSourcedVendingFleet replayed = new EventSourcedVendingFleet(directory, MACHINES, Long.MAX_VALUE)) {
+            System.out.println("Replayed the whole log in " + (System.nanoTime() - start) / 1_000_000
+                    + " ms, machine 42 is " + replayed.getState(42));
+        }
+        deleteDirectory(directory);
+    }
+
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toArray(Path[]::new)) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -14,33 +14,118 @@ the objects are getting sorted in different ways.
 // Strategy interface
 interface PaymentStrategy {
     void pay(int amount);
+
+    default void payAll(int[] amounts) {
+        payAll(amounts, 0, amounts.length);
+    }
+
+    // Pays amounts[from, to); strategies can override this to share work across the batch
+    default void payAll(int[] amounts, int from, int to) {
+        for (int i = from; i < to; i++) {
+            pay(amounts[i]);
+        }
+    }
 }
 
 // Concrete Strategies
 class CreditCardPayment implements PaymentStrategy {
+    // Receipts are printed whenever this many characters are buffered, however large the batch
+    private static final int PRINT_CHUNK = 1 << 16;
+
     private String cardNumber;
+    private ReceiptSink receiptSink;
+    private byte[] receiptSuffix;
 
     public CreditCardPayment(String cardNumber) {
         this.cardNumber = cardNumber;
     }
 
+    // Writes the receipts to the sink instead of System.out
+    public CreditCardPayment(String cardNumber, ReceiptSink receiptSink) {
+        this.cardNumber = cardNumber;
+        this.receiptSink = receiptSink;
+        this.receiptSuffix = receiptSink.encode(" using credit card " + cardNumber + System.lineSeparator());
+    }
+
     @Override
     public void pay(int amount) {
+        if (receiptSink != null) {
+            receiptSink.paid(amount, receiptSuffix);
+            return;
+        }
         System.out.println("Paid " + amount + " using credit card " + cardNumber);
     }
+
+    // Same output as pay(), but printed a chunk of receipts at a time
+    @Override
+    public void payAll(int[] amounts, int from, int to) {
+        if (receiptSink != null) {
+            for (int i = from; i < to; i++) {
+                receiptSink.paid(amounts[i], receiptSuffix);
+            }
+            return;
+        }
+        StringBuilder receipts = new StringBuilder(PRINT_CHUNK + 128);
+        for (int i = from; i < to; i++) {
+            receipts.append("Paid ").append(amounts[i]).append(" using credit card ").append(cardNumber)
+                    .append(System.lineSeparator());
+            if (receipts.length() >= PRINT_CHUNK) {
+                System.out.print(receipts);
+                receipts.setLength(0);
+            }
+        }
+        System.out.print(receipts);
+    }
 }
 
 class PayPalPayment implements PaymentStrategy {
+    // Receipts are printed whenever this many characters are buffered, however large the batch
+    private static final int PRINT_CHUNK = 1 << 16;
+
     private String email;
+    private ReceiptSink receiptSink;
+    private byte[] receiptSuffix;
 
     public PayPalPayment(String email) {
         this.email = email;
     }
 
+    // Writes the receipts to the sink instead of System.out
+    public PayPalPayment(String email, ReceiptSink receiptSink) {
+        this.email = email;
+        this.receiptSink = receiptSink;
+        this.receiptSuffix = receiptSink.encode(" using PayPal account " + email + System.lineSeparator());
+    }
+
     @Override
     public void pay(int amount) {
+        if (receiptSink != null) {
+            receiptSink.paid(amount, receiptSuffix);
+            return;
+        }
         System.out.println("Paid " + amount + " using PayPal account " + email);
     }
+
+    // Same output as pay(), but printed a chunk of receipts at a time
+    @Override
+    public void payAll(int[] amounts, int from, int to) {
+        if (receiptSink != null) {
+            for (int i = from; i < to; i++) {
+                receiptSink.paid(amounts[i], receiptSuffix);
+            }
+            return;
+        }
+        StringBuilder receipts = new StringBuilder(PRINT_CHUNK + 128);
+        for (int i = from; i < to; i++) {
+            receipts.append("Paid ").append(amounts[i]).append(" using PayPal account ").append(email)
+                    .append(System.lineSeparator());
+            if (receipts.length() >= PRINT_CHUNK) {
+                System.out.print(receipts);
+                receipts.setLength(0);
+            }
+        }
+        System.out.print(receipts);
+    }
 }
 
 // Context
@@ -54,6 +139,59 @@ class ShoppingCart {
     public void checkout(int amount) {
         paymentStrategy.pay(amount);
     }
+
+    // Pays every amount, splitting them into batches that are paid in parallel.
+    // A failing batch does not stop the others; the outcome of every batch is returned in order.
+    public List<BatchOutcome> checkoutAll(int[] amounts, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        PaymentStrategy strategy = paymentStrategy;
+        int batches = (amounts.length + batchSize - 1) / batchSize;
+        BatchOutcome[] outcomes = new BatchOutcome[batches];
+        IntStream.range(0, batches).parallel().forEach(batch -> {
+            int from = batch * batchSize;
+            int to = Math.min(amounts.length, from + batchSize);
+            try {
+                strategy.payAll(amounts, from, to);
+                outcomes[batch] = new BatchOutcome(from, to, null);
+            } catch (RuntimeException e) {
+                outcomes[batch] = new BatchOutcome(from, to, e);
+            }
+        });
+        return Arrays.asList(outcomes);
+    }
+}
+
+// Result of paying amounts[from, to) in checkoutAll. A failed batch may have been paid in part,
+// as far as the strategy's payAll got before it threw.
+class BatchOutcome {
+    private final int from;
+    private final int to;
+    private final RuntimeException failure;
+
+    public BatchOutcome(int from, int to, RuntimeException failure) {
+        this.from = from;
+        this.to = to;
+        this.failure = failure;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public boolean isPaid() {
+        return failure == null;
+    }
+
+    // The exception the batch failed with, or null if it was paid
+    public RuntimeException getFailure() {
+        return failure;
+    }
 }
 
 // Client code
@@ -71,3 +209,619 @@ public class Main {
         cart.checkout(50);
     }
 }
+
+
+
+// ************************* Adaptive Payment Example: *************************
+/*
+Instead of the client choosing a strategy by hand, a router can choose one per payment. 
+The adaptive router is itself a PaymentStrategy: it times every pay() call of the wrapped 
+strategies and keeps exponentially weighted moving averages (EWMA) of latency and failure 
+rate for each. Most payments go to the strategy with the lowest expected cost, while a 
+small share is spread over the others so that their averages stay current (an 
+epsilon-greedy bandit). Strategies failing too often are not eligible, and a failed 
+payment is retried on the next best strategy.
+*/
+
+// Online statistics of one strategy
+class StrategyStats {
+    private final double alpha;
+    private double latencyNanos;
+    private double failureRate;
+    private long calls;
+
+    public StrategyStats(double alpha) {
+        this.alpha = alpha;
+    }
+
+    synchronized void record(long nanos, boolean failed) {
+        if (calls++ == 0) {
+            latencyNanos = nanos;
+            failureRate = failed ? 1 : 0;
+        } else {
+            latencyNanos += alpha * (nanos - latencyNanos);
+            failureRate += alpha * ((failed ? 1 : 0) - failureRate);
+        }
+    }
+
+    public synchronized double getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public synchronized double getFailureRate() {
+        return failureRate;
+    }
+
+    public synchronized long getCalls() {
+        return calls;
+    }
+
+    // Expected time per successful payment, counting the time lost on failures
+    synchronized double cost() {
+        return calls == 0 ? 0 : latencyNanos / Math.max(0.01, 1 - failureRate);
+    }
+}
+
+// Strategy that routes every payment to the best performing strategy
+class AdaptivePaymentRouter implements PaymentStrategy {
+    private final List<PaymentStrategy> strategies;
+    private final Map<PaymentStrategy, StrategyStats> stats = new LinkedHashMap<>();
+    private final double explorationRate;
+    private final double maxFailureRate;
+
+    public AdaptivePaymentRouter(List<PaymentStrategy> strategies, double alpha, double explorationRate,
+                                 double maxFailureRate) {
+        this.strategies = strategies;
+        this.explorationRate = explorationRate;
+        this.maxFailureRate = maxFailureRate;
+        for (PaymentStrategy strategy : strategies) {
+            stats.put(strategy, new StrategyStats(alpha));
+        }
+    }
+
+    @Override
+    public void pay(int amount) {
+        List<PaymentStrategy> candidates = rank();
+        RuntimeException lastFailure = null;
+        for (PaymentStrategy strategy : candidates) {
+            long start = System.nanoTime();
+            try {
+                strategy.pay(amount);
+                stats.get(strategy).record(System.nanoTime() - start, false);
+                return;
+            } catch (RuntimeException e) {
+                stats.get(strategy).record(System.nanoTime() - start, true);
+                lastFailure = e;
+            }
+        }
+        throw new IllegalStateException("Payment of " + amount + " failed on every strategy", lastFailure);
+    }
+
+    public StrategyStats getStats(PaymentStrategy strategy) {
+        return stats.get(strategy);
+    }
+
+    // Eligible strategies, cheapest first, except that an exploring call starts with a random one
+    private List<PaymentStrategy> rank() {
+        List<PaymentStrategy> ranked = new ArrayList<>(strategies);
+        ranked.sort(Comparator.comparingDouble(s -> stats.get(s).cost()));
+        List<PaymentStrategy> eligible = new ArrayList<>();
+        List<PaymentStrategy> failing = new ArrayList<>();
+        for (PaymentStrategy strategy : ranked) {
+            (stats.get(strategy).getFailureRate() <= maxFailureRate ? eligible : failing).add(strategy);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < explorationRate) {
+            // Exploration may also pick a failing strategy so that it can show it has recovered
+            PaymentStrategy explored = ranked.get(random.nextInt(ranked.size()));
+            eligible.remove(explored);
+            failing.remove(explored);
+            eligible.add(0, explored);
+        }
+        // Failing strategies are only used as a last resort
+        eligible.addAll(failing);
+        return eligible;
+    }
+}
+
+// Local stand-in for a payment gateway with adjustable latency and error rate
+class StubGateway implements PaymentStrategy {
+    private final String name;
+    private volatile long medianMicros;
+    private volatile double tailSigma;
+    private volatile double failureRate;
+
+    public StubGateway(String name, long medianMicros, double tailSigma, double failureRate) {
+        this.name = name;
+        configure(medianMicros, tailSigma, failureRate);
+    }
+
+    // Latency is log-normal around the median; a larger sigma gives a heavier tail
+    public void configure(long medianMicros, double tailSigma, double failureRate) {
+        this.medianMicros = medianMicros;
+        this.tailSigma = tailSigma;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public void pay(int amount) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long micros = (long) (medianMicros * Math.exp(tailSigma * random.nextGaussian()));
+        LockSupport.parkNanos(micros * 1_000);
+        if (random.nextDouble() < failureRate) {
+            throw new IllegalStateException(name + " declined the payment");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
+
+// Client code
+public class Main {
+    public static void main(String[] args) {
+        ShoppingCart cart = new ShoppingCart();
+        PaymentStrategy creditCardPayment = new CreditCardPayment("1234-5678-9012-3456");
+        PaymentStrategy paypalPayment = new PayPalPayment("user@example.com");
+        cart.setPaymentStrategy(new AdaptivePaymentRouter(List.of(creditCardPayment, paypalPayment), 0.1, 0.1, 0.5));
+        cart.checkout(100);
+
+        // Simulation: the card gateway degrades halfway through and recovers later
+        StubGateway card = new StubGateway("card", 1_000, 0.3, 0.01);
+        StubGateway paypal = new StubGateway("paypal", 2_000, 0.3, 0.01);
+        AdaptivePaymentRouter router = new AdaptivePaymentRouter(List.of(card, paypal), 0.1, 0.05, 0.2);
+        cart.setPaymentStrategy(router);
+        for (int phase = 0; phase < 3; phase++) {
+            if (phase == 1) {
+                card.configure(5_000, 0.8, 0.3);
+            } else if (phase == 2) {
+                card.configure(1_000, 0.3, 0.01);
+            }
+            long cardCalls = router.getStats(card).getCalls();
+            long paypalCalls = router.getStats(paypal).getCalls();
+            long start = System.nanoTime();
+            int failed = 0;
+            for (int i = 0; i < 1000; i++) {
+                try {
+                    cart.checkout(10);
+                } catch (IllegalStateException e) {
+                    failed++;
+                }
+            }
+            System.out.println("Phase " + phase + ": card " + (router.getStats(card).getCalls() - cardCalls)
+                    + " calls, paypal " + (router.getStats(paypal).getCalls() - paypalCalls) + " calls, "
+                    + failed + " failed checkouts, " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+}
+
+
+
+
+// ************************* Bulk Checkout Example: *************************
+/*
+Paying many orders one by one repeats the per-call overhead for each of them; for the 
+strategies above that is mainly taking the console lock and writing one line at a time. 
+checkoutAll splits the orders into batches and pays the batches in parallel through 
+payAll, which strategies can implement more efficiently than a loop over pay(). Batches 
+fail independently: checkoutAll returns one outcome per batch so the caller can tell which 
+orders were paid and retry only the rest.
+*/
+
+// Client code
+public class Main {
+    static final int ORDERS = 2_000_000;
+
+    public static void main(String[] args) {
+        ShoppingCart cart = new ShoppingCart();
+        cart.setPaymentStrategy(new CreditCardPayment("1234-5678-9012-3456"));
+        cart.checkoutAll(new int[] {100, 50, 25}, 2);  // batches may be printed in any order
+
+        // One batch fails; the outcomes tell which orders still need paying
+        cart.setPaymentStrategy(amount -> {
+            if (amount > 75) {
+                throw new IllegalStateException("Declined: " + amount);
+            }
+        });
+        for (BatchOutcome outcome : cart.checkoutAll(new int[] {10, 20, 100, 30}, 2)) {
+            System.out.println("Orders " + outcome.getFrom() + "-" + (outcome.getTo() - 1) + ": "
+                    + (outcome.isPaid() ? "paid" : outcome.getFailure().getMessage()));
+        }
+        cart.setPaymentStrategy(new CreditCardPayment("1234-5678-9012-3456"));
+
+        int[] amounts = new int[ORDERS];
+        for (int i = 0; i < ORDERS; i++) {
+            amounts[i] = 1 + i % 500;
+        }
+        // Discard the receipts so that the terminal does not dominate the measurement
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int amount : amounts) {
+                cart.checkout(amount);
+            }
+            long perOrder = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            cart.checkoutAll(amounts, 4096);
+            long bulk = System.nanoTime() - start;
+
+            console.println("checkout loop: " + ORDERS * 1_000_000_000L / perOrder + " orders/s, "
+                    + "checkoutAll: " + ORDERS * 1_000_000_000L / bulk + " orders/s");
+        }
+        System.setOut(console);
+    }
+}
+
+
+// ************************* Async Payment Example: *************************
+/*
+A synchronous pay() blocks the checkout thread for as long as the gateway takes and reports 
+nothing back. The asynchronous strategy returns a CompletableFuture of the result instead. 
+The adapter runs any PaymentStrategy on an executor, limits how many payments may be in 
+flight per strategy and fails payments that miss their deadline. The hedged strategy sends 
+a payment to a second strategy when the first has not answered within its recent p95 
+latency, and takes whichever answer arrives first. Hedging must only be used with gateways 
+that recognise a duplicate payment, otherwise the customer could be charged twice.
+*/
+
+// Outcome of a successful payment
+class PaymentResult {
+    private final String strategy;
+    private final int amount;
+    private final long latencyNanos;
+
+    public PaymentResult(String strategy, int amount, long latencyNanos) {
+        this.strategy = strategy;
+        this.amount = amount;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+}
+
+// Asynchronous strategy interface
+interface AsyncPaymentStrategy {
+    CompletableFuture<PaymentResult> payAsync(int amount);
+}
+
+// Runs a synchronous strategy asynchronously with a concurrency cap and a deadline
+class AsyncPaymentAdapter implements AsyncPaymentStrategy {
+    private static final int WINDOW = 128;
+
+    private final PaymentStrategy strategy;
+    private final Executor executor;
+    private final Semaphore inFlight;
+    private final long timeoutMillis;
+    private final long[] recentLatencies = new long[WINDOW];
+    private long recorded;
+
+    public AsyncPaymentAdapter(PaymentStrategy strategy, Executor executor, int maxInFlight, long timeoutMillis) {
+        this.strategy = strategy;
+        this.executor = executor;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public CompletableFuture<PaymentResult> payAsync(int amount) {
+        if (!inFlight.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Too many payments in flight on " + strategy));
+        }
+        CompletableFuture<PaymentResult> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    strategy.pay(amount);
+                    long latency = System.nanoTime() - start;
+                    record(latency);
+                    return new PaymentResult(strategy.toString(), amount, latency);
+                } finally {
+                    inFlight.release();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            // The task never ran, so its finally block will not give the permit back
+            inFlight.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // 95th percentile of the latest successful payments, or the timeout when there are none yet
+    public synchronized long getP95Nanos() {
+        int count = (int) Math.min(recorded, WINDOW);
+        if (count == 0) {
+            return TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+        long[] sorted = Arrays.copyOf(recentLatencies, count);
+        Arrays.sort(sorted);
+        return sorted[(int) (count * 0.95)];
+    }
+
+    private synchronized void record(long latency) {
+        recentLatencies[(int) (recorded++ % WINDOW)] = latency;
+    }
+}
+
+// Sends the payment to a backup strategy when the primary is slower than usual
+class HedgedPayment implements AsyncPaymentStrategy {
+    private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+    private final AsyncPaymentAdapter primary;
+    private final AsyncPaymentStrategy backup;
+    private final LongAdder hedged = new LongAdder();
+
+    public HedgedPayment(AsyncPaymentAdapter primary, AsyncPaymentStrategy backup) {
+        this.primary = primary;
+        this.backup = backup;
+    }
+
+    @Override
+    public CompletableFuture<PaymentResult> payAsync(int amount) {
+        CompletableFuture<PaymentResult> result = new CompletableFuture<>();
+        AtomicBoolean backupStarted = new AtomicBoolean();
+        // Attempts that have not answered yet; once it reaches 0 no new attempt may start
+        AtomicInteger outstanding = new AtomicInteger(1);
+        Runnable startBackup = () -> {
+            if (!result.isDone() && backupStarted.compareAndSet(false, true)
+                    && outstanding.getAndUpdate(n -> n == 0 ? 0 : n + 1) > 0) {
+                hedged.increment();
+                backup.payAsync(amount).whenComplete((value, error) -> complete(result, outstanding, value, error));
+            }
+        };
+        primary.payAsync(amount).whenComplete((value, error) -> {
+            if (error != null) {
+                // Do not wait for the hedge delay when the primary has already failed
+                startBackup.run();
+            }
+            complete(result, outstanding, value, error);
+        });
+        ScheduledFuture<?> hedgeTimer = TIMER.schedule(startBackup, primary.getP95Nanos(), TimeUnit.NANOSECONDS);
+        // Do not leave a finished payment's timer task queued until its delay runs out
+        result.whenComplete((value, error) -> hedgeTimer.cancel(false));
+        return result;
+    }
+
+    public long getHedged() {
+        return hedged.sum();
+    }
+
+    // Cancelled hedge timers are removed from the queue right away instead of when they would have fired
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "payment-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    // The first success wins; a failure only counts when no other attempt is pending
+    private static void complete(CompletableFuture<PaymentResult> result, AtomicInteger outstanding,
+                                 PaymentResult value, Throwable error) {
+        if (error == null) {
+            result.complete(value);
+        } else if (outstanding.decrementAndGet() == 0) {
+            result.completeExceptionally(error);
+        }
+    }
+}
+
+// Client code
+public class Main {
+    static final int PAYMENTS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        AsyncPaymentStrategy creditCard = new AsyncPaymentAdapter(
+                new CreditCardPayment("1234-5678-9012-3456"), executor, 10, 1000);
+        PaymentResult receipt = creditCard.payAsync(100).get();
+        System.out.println("Confirmed " + receipt.getAmount() + " in " + receipt.getLatencyNanos() / 1_000 + " us");
+
+        // Gateways with a 1 ms median and an injected heavy tail
+        AsyncPaymentAdapter card = new AsyncPaymentAdapter(new StubGateway("card", 1_000, 1.0, 0), executor, 64, 200);
+        AsyncPaymentAdapter paypal = new AsyncPaymentAdapter(new StubGateway("paypal", 1_000, 1.0, 0), executor, 64, 200);
+        HedgedPayment hedged = new HedgedPayment(card, paypal);
+        for (AsyncPaymentStrategy strategy : Arrays.asList(card, hedged)) {
+            long[] latencies = new long[PAYMENTS];
+            int failed = 0;
+            for (int i = 0; i < PAYMENTS; i++) {
+                long start = System.nanoTime();
+                try {
+                    strategy.payAsync(10).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            System.out.println((strategy == card ? "Single gateway" : "Hedged") + ": p50="
+                    + latencies[PAYMENTS / 2] / 1_000 + "us p99=" + latencies[(int) (PAYMENTS * 0.99)] / 1_000
+                    + "us p99.9=" + latencies[(int) (PAYMENTS * 0.999)] / 1_000 + "us, " + failed + " failed");
+        }
+        System.out.println("Hedged payments: " + hedged.getHedged());
+        executor.shutdown();
+    }
+}
+
+
+
+
+// ************************* Receipt Sink Example: *************************
+/*
+Printing a receipt with System.out.println builds a new String per payment and takes the 
+console lock every time. A receipt sink gives every thread its own byte buffer and writes 
+the receipt into it directly: the fixed parts of the text are encoded once, and the amount 
+is written digit by digit. When a buffer is full it is written to a FileChannel in one go. 
+Once the buffers exist, recording a payment allocates nothing, and the text is exactly 
+what println would have printed, provided the sink is given the same charset as the 
+PrintStream (System.out.charset() for the console).
+*/
+
+class ReceiptSink implements AutoCloseable {
+    // Sign and up to ten digits
+    private static final int MAX_AMOUNT_LENGTH = 11;
+    private static final String DIGITS = "-0123456789";
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final byte[] paid;
+    private final int bufferSize;
+    private final List<ByteBuffer> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ByteBuffer> buffer;
+
+    public ReceiptSink(FileChannel channel, int bufferSize, Charset charset) {
+        // Amounts are written one byte per character, which only works if the charset agrees
+        if (!Arrays.equals(DIGITS.getBytes(charset), DIGITS.getBytes(StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("Charset must encode digits as ASCII: " + charset);
+        }
+        this.channel = channel;
+        this.charset = charset;
+        this.paid = encode("Paid ");
+        this.bufferSize = bufferSize;
+        this.buffer = ThreadLocal.withInitial(() -> {
+            ByteBuffer created = ByteBuffer.allocateDirect(bufferSize);
+            buffers.add(created);
+            return created;
+        });
+    }
+
+    // Encodes text, e.g. a strategy's receipt suffix, in this sink's charset
+    public byte[] encode(String text) {
+        return text.getBytes(charset);
+    }
+
+    // Records "Paid <amount><suffix>", where the suffix is already encoded by the strategy
+    public void paid(int amount, byte[] suffix) {
+        ByteBuffer out = buffer.get();
+        if (out.remaining() < paid.length + MAX_AMOUNT_LENGTH + suffix.length) {
+            write(out);
+            if (out.remaining() < paid.length + MAX_AMOUNT_LENGTH + suffix.length) {
+                throw new IllegalArgumentException("Receipt larger than the buffer");
+            }
+        }
+        out.put(paid);
+        putDecimal(out, amount);
+        out.put(suffix);
+    }
+
+    // Writes the calling thread's pending receipts
+    public void flush() {
+        write(buffer.get());
+    }
+
+    // Writes the pending receipts of every thread; call only once all of them have stopped paying
+    @Override
+    public void close() {
+        for (ByteBuffer pending : buffers) {
+            write(pending);
+        }
+    }
+
+    private void write(ByteBuffer pending) {
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write receipts", e);
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private static void putDecimal(ByteBuffer out, int value) {
+        long remaining = value;
+        if (remaining < 0) {
+            out.put((byte) '-');
+            remaining = -remaining;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= remaining) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + remaining / divisor % 10));
+        }
+    }
+}
+
+// Client code
+public class Main {
+    static final int PAYMENTS = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        try (ReceiptSink receipts = new ReceiptSink(
+                new FileOutputStream(FileDescriptor.out).getChannel(), 1 << 16, System.out.charset())) {
+            ShoppingCart cart = new ShoppingCart();
+            cart.setPaymentStrategy(new CreditCardPayment("1234-5678-9012-3456", receipts));
+            cart.checkout(100);
+            cart.setPaymentStrategy(new PayPalPayment("user@example.com", receipts));
+            cart.checkout(50);
+        }
+
+        // Same receipts through println and through the sink, each into its own file
+        Path printed = Files.createTempFile("receipts", ".println");
+        Path sunk = Files.createTempFile("receipts", ".sink");
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        PrintStream console = System.out;
+
+        System.setOut(new PrintStream(new BufferedOutputStream(new FileOutputStream(printed.toFile()), 1 << 16),
+                false, StandardCharsets.UTF_8));
+        PaymentStrategy plain = new CreditCardPayment("1234-5678-9012-3456");
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < PAYMENTS; i++) {
+            plain.pay(i - 1000);
+        }
+        System.out.flush();
+        long printNanos = System.nanoTime() - start;
+        long printBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+        System.out.close();
+        System.setOut(console);
+
+        try (FileChannel channel = FileChannel.open(sunk, StandardOpenOption.WRITE);
+             ReceiptSink receipts = new ReceiptSink(channel, 1 << 16, StandardCharsets.UTF_8)) {
+            PaymentStrategy sinking = new CreditCardPayment("1234-5678-9012-3456", receipts);
+            sinking.pay(0);  // creates this thread's buffer outside the measurement
+            receipts.flush();
+            channel.truncate(0);
+            channel.position(0);
+            bytes = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < PAYMENTS; i++) {
+                sinking.pay(i - 1000);
+            }
+            receipts.flush();
+            long sinkNanos = System.nanoTime() - start;
+            long sinkBytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+
+            System.out.println("println: " + PAYMENTS * 1_000_000_000L / printNanos + " payments/s, "
+                    + printBytes / PAYMENTS + " bytes allocated per payment");
+            System.out.println("ReceiptSink: " + PAYMENTS * 1_000_000_000L / sinkNanos + " payments/s, "
+                    + sinkBytes / PAYMENTS + " bytes allocated per payment");
+        }
+        System.out.println("Identical output: " + (Files.mismatch(printed, sunk) == -1));
+        Files.delete(printed);
+        Files.delete(sunk);
+    }
+}
\ No newline at end of file